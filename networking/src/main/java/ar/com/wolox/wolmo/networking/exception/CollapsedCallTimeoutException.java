@@ -0,0 +1,43 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.exception;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+import ar.com.wolox.wolmo.networking.optimizations.BaseCallCollapser;
+import retrofit2.Call;
+
+/**
+ * {@link IOException} reported to the callbacks of a collapsed {@link Call} that didn't complete
+ * in the time allowed by its {@link BaseCallCollapser}.
+ */
+public final class CollapsedCallTimeoutException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CollapsedCallTimeoutException(@NonNull Call<?> call, long timeoutMillis) {
+        super("Collapsed call to " + call.request().url().toString()
+                + " didn't complete after " + timeoutMillis + " ms");
+    }
+}
@@ -23,6 +23,7 @@ package ar.com.wolox.wolmo.networking.exception;
 
 import android.annotation.SuppressLint;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import ar.com.wolox.wolmo.networking.offline.Repository;
 
@@ -36,11 +37,18 @@ public final class NetworkResourceException extends Exception {
             "Network resource requested at %s yielded a %d error code";
 
     private final int mErrorCode;
+    private final String mErrorBody;
 
-    @SuppressLint("DefaultLocale")
     public NetworkResourceException(@NonNull String resourceUrl, int errorCode) {
+        this(resourceUrl, errorCode, null);
+    }
+
+    @SuppressLint("DefaultLocale")
+    public NetworkResourceException(@NonNull String resourceUrl, int errorCode,
+                                    @Nullable String errorBody) {
         super(String.format(REPORT_MESSAGE_FORMAT, resourceUrl, errorCode));
         mErrorCode = errorCode;
+        mErrorBody = errorBody;
     }
 
     /**
@@ -49,4 +57,13 @@ public final class NetworkResourceException extends Exception {
     public int getErrorCode() {
         return mErrorCode;
     }
+
+    /**
+     * @return the error body of the response, only available when it was kept by a
+     * {@link ar.com.wolox.wolmo.networking.offline.NegativeCache}
+     */
+    @Nullable
+    public String getErrorBody() {
+        return mErrorBody;
+    }
 }
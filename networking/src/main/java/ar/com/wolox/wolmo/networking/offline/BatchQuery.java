@@ -0,0 +1,266 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import ar.com.wolox.wolmo.core.java8.Consumer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import retrofit2.Call;
+
+/**
+ * Runs many queries of a {@link Repository} together and notifies their results as a whole.
+ * <p/>
+ * Every query reads its cache right away, but at most <code>maxConcurrentFetches</code> of them
+ * make their requests at the same time, the rest wait for a free slot. Each result is notified
+ * as soon as it's available with {@link #onResult(Consumer)}, so slow queries don't hold back the
+ * fast ones, and the results of every query are notified once all of them complete with
+ * {@link #onComplete(Consumer)}.
+ * <p/>
+ * Example:
+ * <pre>
+ * repository.batch()
+ *         .add(service.getProfile(), profileStrategy)
+ *         .add(service.getFeed(), feedStrategy)
+ *         .onResult(result -&gt; showPartialResult(result.getIndex(), result.getData()))
+ *         .onComplete(results -&gt; hideProgress())
+ *         .run();
+ * </pre>
+ *
+ * @param <T> type of the data of the queries
+ * @param <C> type of the cache of the repository
+ */
+public final class BatchQuery<T, C> implements Runnable {
+
+    /**
+     * Default amount of requests of a batch made at the same time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+
+    private final Repository<T, C> mRepository;
+    private final FetchLimiter mFetchLimiter;
+    private final List<Repository.Query<T>> mQueries = new ArrayList<>();
+    private Consumer<Result<T>> mResultConsumer;
+    private Consumer<List<Result<T>>> mCompleteConsumer;
+    private Result<T>[] mResults;
+    private int mPendingQueries;
+    private boolean mStarted;
+
+    BatchQuery(@NonNull Repository<T, C> repository,
+               @IntRange(from = 1) int maxConcurrentFetches) {
+        mRepository = repository;
+        mFetchLimiter = new FetchLimiter(maxConcurrentFetches);
+    }
+
+    /**
+     * Adds a query to the batch, see {@link Repository#query(int, Call, Repository.QueryStrategy)}.
+     *
+     * @param policy to use for the query
+     * @param call request that retrieves asked information
+     * @param queryStrategy that determines how to react to local/network actions
+     *
+     * @return the same instance
+     * @throws IllegalStateException if the batch was already run
+     */
+    public BatchQuery<T, C> add(@Repository.AccessPolicy int policy, @NonNull Call<T> call,
+                                @NonNull Repository.QueryStrategy<T, C> queryStrategy) {
+        return add(mRepository.query(policy, call, queryStrategy));
+    }
+
+    /**
+     * Same as in {@link #add(int, Call, Repository.QueryStrategy)} but using the default access
+     * policy of the repository.
+     *
+     * @param call request that retrieves asked information
+     * @param queryStrategy that determines how to react to local/network actions
+     *
+     * @return the same instance
+     * @throws IllegalStateException if the batch was already run
+     */
+    public BatchQuery<T, C> add(@NonNull Call<T> call,
+                                @NonNull Repository.QueryStrategy<T, C> queryStrategy) {
+        return add(mRepository.query(call, queryStrategy));
+    }
+
+    /**
+     * Sets the {@link Consumer} of the partial results. It's called each time a query notifies
+     * data or an error, so a {@link Repository#CACHE_STALE_WHILE_REVALIDATE} query can be
+     * notified twice.
+     *
+     * @param resultConsumer to notify the results to
+     *
+     * @return the same instance
+     */
+    public BatchQuery<T, C> onResult(@NonNull Consumer<Result<T>> resultConsumer) {
+        mResultConsumer = resultConsumer;
+        return this;
+    }
+
+    /**
+     * Sets the {@link Consumer} of the final results, called once every query completed. The
+     * results are in the same order the queries were added, each one holding the latest data or
+     * the error of its query. Cancelled queries hold a {@link CancellationException}.
+     *
+     * @param completeConsumer to notify the results to
+     *
+     * @return the same instance
+     */
+    public BatchQuery<T, C> onComplete(@NonNull Consumer<List<Result<T>>> completeConsumer) {
+        mCompleteConsumer = completeConsumer;
+        return this;
+    }
+
+    /**
+     * @return the amount of queries of the batch
+     */
+    public synchronized int size() {
+        return mQueries.size();
+    }
+
+    /**
+     * Runs every query of the batch. An empty batch completes right away, on the calling thread.
+     *
+     * @throws IllegalStateException if the batch was already run
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+        List<Repository.Query<T>> queries;
+        synchronized (this) {
+            checkNotStarted();
+            mStarted = true;
+            // Generic arrays can't be created, but every result is of the type of the batch
+            mResults = (Result<T>[]) new Result<?>[mQueries.size()];
+            mPendingQueries = mQueries.size();
+            queries = new ArrayList<>(mQueries);
+        }
+
+        if (queries.isEmpty()) {
+            complete();
+            return;
+        }
+
+        for (int i = 0; i < queries.size(); i++) {
+            final int index = i;
+            Repository.Query<T> repositoryQuery = queries.get(i);
+            repositoryQuery.onSuccess(data -> onResult(new Result<>(index, data, null)))
+                    .onError(throwable -> onResult(new Result<T>(index, null, throwable)));
+            repositoryQuery.setCompleteAction(this::onQueryComplete);
+            repositoryQuery.setFetchLimiter(mFetchLimiter);
+            repositoryQuery.run();
+        }
+    }
+
+    private synchronized BatchQuery<T, C> add(@NonNull Repository.Query<T> repositoryQuery) {
+        checkNotStarted();
+        mQueries.add(repositoryQuery);
+        return this;
+    }
+
+    private void checkNotStarted() {
+        if (mStarted) throw new IllegalStateException("Batch already run");
+    }
+
+    private void onResult(@NonNull Result<T> result) {
+        synchronized (this) {
+            mResults[result.mIndex] = result;
+        }
+        if (mResultConsumer != null) mResultConsumer.accept(result);
+    }
+
+    private void onQueryComplete() {
+        synchronized (this) {
+            if (--mPendingQueries > 0) return;
+        }
+        complete();
+    }
+
+    private void complete() {
+        List<Result<T>> results;
+        synchronized (this) {
+            for (int i = 0; i < mResults.length; i++) {
+                // Cancelled queries complete without notifying anything
+                if (mResults[i] == null) {
+                    mResults[i] = new Result<>(i, null, new CancellationException());
+                }
+            }
+            results = Collections.unmodifiableList(Arrays.asList(mResults));
+        }
+        if (mCompleteConsumer != null) mCompleteConsumer.accept(results);
+    }
+
+    /**
+     * Result of a query of a batch, either data or an error.
+     *
+     * @param <T> type of the data
+     */
+    public static final class Result<T> {
+
+        private final int mIndex;
+        private final T mData;
+        private final Throwable mError;
+
+        private Result(int index, @Nullable T data, @Nullable Throwable error) {
+            mIndex = index;
+            mData = data;
+            mError = error;
+        }
+
+        /**
+         * @return the position of the query in the batch, in order of addition
+         */
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /**
+         * @return the data of the query, or <code>null</code> if it failed
+         */
+        @Nullable
+        public T getData() {
+            return mData;
+        }
+
+        /**
+         * @return the error of the query, or <code>null</code> if it succeeded
+         */
+        @Nullable
+        public Throwable getError() {
+            return mError;
+        }
+
+        /**
+         * @return whether the query succeeded
+         */
+        public boolean isSuccessful() {
+            return mError == null;
+        }
+    }
+}
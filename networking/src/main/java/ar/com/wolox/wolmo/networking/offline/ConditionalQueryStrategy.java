@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import okhttp3.Request;
+
+/**
+ * {@link KeyedTimeResolveQueryStrategy} that keeps the value of its key once it's dirty, so it
+ * can be revalidated with a conditional request. The OkHttp client of the service must
+ * have a {@link ar.com.wolox.wolmo.networking.retrofit.interceptor.ConditionalRequestInterceptor}
+ * with the same {@link ValidatorStore}.
+ *
+ * @param <K> type of the keys of the cache
+ * @param <T> type of the cached values
+ */
+public class ConditionalQueryStrategy<K, T> extends KeyedTimeResolveQueryStrategy<K, T>
+        implements IRevalidatingQueryStrategy<T, IKeyedCache<K, T>> {
+
+    private final K mKey;
+    private final ValidatorStore mValidatorStore;
+
+    /**
+     * Creates an instance of the class with a refresh delta time.
+     *
+     * @param key of the value to query
+     * @param validatorStore to arm revalidation requests in
+     * @param refreshDeltaInMillis to use
+     */
+    public ConditionalQueryStrategy(@NonNull K key, @NonNull ValidatorStore validatorStore,
+                                    @IntRange(from = 1) long refreshDeltaInMillis) {
+        super(key, refreshDeltaInMillis);
+        mKey = key;
+        mValidatorStore = validatorStore;
+    }
+
+    /**
+     * Creates an instance of the class with a refresh delta time, keeping the freshness of the key
+     * in a shared tracker. The listener of the tracker shouldn't remove the expired values from
+     * the cache, or there is nothing left to revalidate.
+     *
+     * @param key of the value to query
+     * @param validatorStore to arm revalidation requests in
+     * @param expiryTracker to keep the freshness of the key in
+     * @param refreshDeltaInMillis to use
+     */
+    public ConditionalQueryStrategy(@NonNull K key, @NonNull ValidatorStore validatorStore,
+                                    @NonNull ExpiryTracker<K> expiryTracker,
+                                    @IntRange(from = 1) long refreshDeltaInMillis) {
+        super(key, expiryTracker, refreshDeltaInMillis);
+        mKey = key;
+        mValidatorStore = validatorStore;
+    }
+
+    /**
+     * Creates an instance of the class with the {@link #DEFAULT_REFRESH_DELTA_TIME}.
+     *
+     * @param key of the value to query
+     * @param validatorStore to arm revalidation requests in
+     */
+    public ConditionalQueryStrategy(@NonNull K key, @NonNull ValidatorStore validatorStore) {
+        super(key);
+        mKey = key;
+        mValidatorStore = validatorStore;
+    }
+
+    /**
+     * The dirty value is kept to be revalidated, it's replaced once the request completes.
+     */
+    @Override
+    public void invalidate(@NonNull IKeyedCache<K, T> cache) {}
+
+    @Nullable
+    @Override
+    public T readStaleLocalSource(@NonNull IKeyedCache<K, T> cache) {
+        return cache.get(mKey);
+    }
+
+    @Override
+    public void onRevalidate(@NonNull Request request) {
+        mValidatorStore.arm(request);
+    }
+
+    @Override
+    public void onNotModified(@NonNull T data, @NonNull IKeyedCache<K, T> cache) {
+        consumeRemoteSource(data, cache);
+    }
+}
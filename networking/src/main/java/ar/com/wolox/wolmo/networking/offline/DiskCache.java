@@ -0,0 +1,463 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Thread-safe {@link IKeyedCache} persisted on disk, so cached data survives process death.
+ * <p>
+ * Values are serialized to JSON with the given {@link Gson}, usually the one provided by
+ * {@link ar.com.wolox.wolmo.networking.di.modules.GsonModule}, and appended as records to
+ * memory-mapped segment files. Writes go to the page cache of the OS, so they are not lost if
+ * the process dies. An in-memory index points every key to its latest record, so reads never
+ * scan the files.
+ * <p>
+ * Every record has a checksum. When the cache is opened, the segments are replayed in order to
+ * rebuild the index and a segment is read only up to its first corrupt record, like the one
+ * partially written when the device shut down.
+ * <p>
+ * Replaced and removed values leave dead records behind. Once they take more space than the live
+ * ones, the live records are copied to new segments and the old ones deleted. When the live
+ * records exceed the maximum size, the oldest are removed.
+ *
+ * @param <V> type of the cached values
+ */
+public class DiskCache<V> implements IKeyedCache<String, V>, Closeable {
+
+    /**
+     * Default size of each segment file.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * Default maximum size of the live records.
+     */
+    public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    // Length and checksum of the payload
+    private static final int HEADER_SIZE = 8;
+    // Type and key length
+    private static final int PAYLOAD_HEADER_SIZE = 5;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+    private final File mDirectory;
+    private final Gson mGson;
+    private final Type mType;
+    private final int mSegmentSize;
+    private final long mMaxSize;
+
+    private final TreeMap<Integer, Segment> mSegments = new TreeMap<>();
+    // In insertion order, so the oldest entries are evicted first
+    private final LinkedHashMap<String, Location> mIndex = new LinkedHashMap<>();
+    private Segment mActiveSegment;
+    private long mTotalSize;
+    private long mLiveSize;
+
+    /**
+     * Opens the cache stored in the directory, or creates it if empty, with
+     * {@link #DEFAULT_SEGMENT_SIZE} and {@link #DEFAULT_MAX_SIZE}.
+     *
+     * @param directory to store the segment files in, used only by this cache
+     * @param gson to serialize the values with
+     * @param type of the values
+     *
+     * @throws IOException if the directory can't be read or written
+     */
+    public DiskCache(@NonNull File directory, @NonNull Gson gson, @NonNull Type type)
+            throws IOException {
+        this(directory, gson, type, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Opens the cache stored in the directory, or creates it if empty.
+     *
+     * @param directory to store the segment files in, used only by this cache
+     * @param gson to serialize the values with
+     * @param type of the values
+     * @param segmentSize size of each segment file, values bigger than this aren't cached
+     * @param maxSize maximum size of the live records
+     *
+     * @throws IOException if the directory can't be read or written
+     */
+    public DiskCache(@NonNull File directory, @NonNull Gson gson, @NonNull Type type,
+                     @IntRange(from = 1) int segmentSize, @IntRange(from = 1) long maxSize)
+            throws IOException {
+        mDirectory = directory;
+        mGson = gson;
+        mType = type;
+        mSegmentSize = segmentSize;
+        mMaxSize = maxSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create cache directory " + directory);
+        }
+        load();
+    }
+
+    /**
+     * Reads the value of the key from its segment. A value that can't be deserialized, for
+     * example because its class changed, is removed and reported as a miss.
+     */
+    @Nullable
+    @Override
+    public synchronized V get(@NonNull String key) {
+        Location location = mIndex.get(key);
+        if (location == null) return null;
+
+        ByteBuffer record = location.mSegment.read(location.mOffset, location.mLength);
+        record.position(record.position() + HEADER_SIZE + PAYLOAD_HEADER_SIZE
+                + record.getInt(record.position() + HEADER_SIZE + 1));
+        byte[] value = new byte[record.remaining()];
+        record.get(value);
+
+        try {
+            return mGson.fromJson(new String(value, UTF_8), mType);
+        } catch (JsonParseException e) {
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Appends the value to the active segment. Values that don't fit in a segment, or that can't
+     * be written, aren't cached and the previous value of the key is removed.
+     */
+    @Override
+    public synchronized void put(@NonNull String key, @NonNull V value) {
+        byte[] record = encode(TYPE_PUT, key, mGson.toJson(value, mType).getBytes(UTF_8));
+        if (record.length > mSegmentSize) {
+            remove(key);
+            return;
+        }
+
+        try {
+            Location location = append(record);
+            unlink(mIndex.remove(key));
+            mIndex.put(key, location);
+            mLiveSize += location.mLength;
+            evictOldest();
+            compactIfNeeded();
+        } catch (IOException e) {
+            removeFromIndex(key);
+        }
+    }
+
+    @Override
+    public synchronized void remove(@NonNull String key) {
+        if (!mIndex.containsKey(key)) return;
+
+        try {
+            // The removal must be persisted, otherwise the value comes back on the next load
+            append(encode(TYPE_REMOVE, key, new byte[0]));
+            compactIfNeeded();
+        } catch (IOException e) {
+            // The value stays on disk, but it's never read again by this instance
+        }
+        removeFromIndex(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (Segment segment : mSegments.values()) {
+            segment.delete();
+        }
+        mSegments.clear();
+        mIndex.clear();
+        mActiveSegment = null;
+        mTotalSize = 0;
+        mLiveSize = 0;
+    }
+
+    /**
+     * Flushes the segments to the storage. The cache must not be used after closing it.
+     *
+     * @throws IOException if a segment couldn't be flushed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : mSegments.values()) {
+            segment.mBuffer.force();
+        }
+        mSegments.clear();
+        mIndex.clear();
+        mActiveSegment = null;
+    }
+
+    /**
+     * @return amount of cached entries
+     */
+    public synchronized int size() {
+        return mIndex.size();
+    }
+
+    /**
+     * @return amount of segment files in use
+     */
+    public synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * Copies the live records to new segments and deletes the old ones.
+     *
+     * @throws IOException if the new segments can't be written, the old ones are kept then
+     */
+    public synchronized void compact() throws IOException {
+        List<Segment> oldSegments = new ArrayList<>(mSegments.values());
+        mActiveSegment = null;
+
+        Map<String, Location> compacted = new LinkedHashMap<>();
+        for (Map.Entry<String, Location> entry : mIndex.entrySet()) {
+            Location location = entry.getValue();
+            ByteBuffer record = location.mSegment.read(location.mOffset, location.mLength);
+            byte[] bytes = new byte[location.mLength];
+            record.get(bytes);
+            compacted.put(entry.getKey(), append(bytes));
+        }
+
+        for (Segment segment : oldSegments) {
+            mSegments.remove(segment.mId);
+            segment.delete();
+        }
+        mIndex.clear();
+        mIndex.putAll(compacted);
+        mTotalSize = mLiveSize;
+    }
+
+    /**
+     * Replays every segment in order to rebuild the index.
+     */
+    private void load() throws IOException {
+        File[] files = mDirectory.listFiles();
+        if (files == null) throw new IOException("Can't list cache directory " + mDirectory);
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+            try {
+                int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+                mSegments.put(id, Segment.open(file, id, mSegmentSize));
+            } catch (NumberFormatException e) {
+                // Not a segment of this cache
+            }
+        }
+
+        for (Segment segment : mSegments.values()) {
+            replay(segment);
+            mActiveSegment = segment;
+        }
+    }
+
+    private void replay(@NonNull Segment segment) {
+        ByteBuffer buffer = segment.mBuffer.duplicate();
+        CRC32 crc = new CRC32();
+        int offset = 0;
+
+        while (offset + HEADER_SIZE + PAYLOAD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length < PAYLOAD_HEADER_SIZE || offset + HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            buffer.position(offset + HEADER_SIZE);
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) break;
+
+            ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+            byte type = payloadBuffer.get();
+            int keyLength = payloadBuffer.getInt();
+            if (keyLength < 0 || keyLength > length - PAYLOAD_HEADER_SIZE) break;
+            String key = new String(payload, PAYLOAD_HEADER_SIZE, keyLength, UTF_8);
+
+            int recordLength = HEADER_SIZE + length;
+            unlink(mIndex.remove(key));
+            if (type == TYPE_PUT) {
+                mIndex.put(key, new Location(segment, offset, recordLength));
+                mLiveSize += recordLength;
+            }
+            mTotalSize += recordLength;
+            offset += recordLength;
+        }
+        segment.mWriteOffset = offset;
+    }
+
+    /**
+     * Writes the record at the end of the active segment, starting a new one if it doesn't fit.
+     */
+    @NonNull
+    private Location append(@NonNull byte[] record) throws IOException {
+        if (mActiveSegment == null
+                || mActiveSegment.mWriteOffset + record.length > mSegmentSize) {
+            int id = mSegments.isEmpty() ? 0 : mSegments.lastKey() + 1;
+            mActiveSegment = Segment.open(new File(mDirectory, SEGMENT_PREFIX + id
+                    + SEGMENT_SUFFIX), id, mSegmentSize);
+            mSegments.put(id, mActiveSegment);
+        }
+
+        Location location = new Location(mActiveSegment, mActiveSegment.mWriteOffset,
+                record.length);
+        mActiveSegment.write(record);
+        mTotalSize += record.length;
+        return location;
+    }
+
+    private void removeFromIndex(@NonNull String key) {
+        unlink(mIndex.remove(key));
+    }
+
+    private void unlink(@Nullable Location location) {
+        if (location != null) mLiveSize -= location.mLength;
+    }
+
+    private void evictOldest() throws IOException {
+        Iterator<String> keys = mIndex.keySet().iterator();
+        while (mLiveSize > mMaxSize && keys.hasNext()) {
+            String key = keys.next();
+            append(encode(TYPE_REMOVE, key, new byte[0]));
+            unlink(mIndex.get(key));
+            keys.remove();
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        long deadSize = mTotalSize - mLiveSize;
+        if (deadSize > mSegmentSize && deadSize > mLiveSize) compact();
+    }
+
+    @NonNull
+    private static byte[] encode(byte type, @NonNull String key, @NonNull byte[] value) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int length = PAYLOAD_HEADER_SIZE + keyBytes.length + value.length;
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length);
+        record.putInt(0);
+        record.put(type);
+        record.putInt(keyBytes.length);
+        record.put(keyBytes);
+        record.put(value);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Where the latest record of a key is.
+     */
+    private static final class Location {
+
+        private final Segment mSegment;
+        private final int mOffset;
+        private final int mLength;
+
+        private Location(@NonNull Segment segment, int offset, int length) {
+            mSegment = segment;
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    /**
+     * A memory-mapped file records are appended to.
+     */
+    private static final class Segment {
+
+        private final File mFile;
+        private final int mId;
+        private final MappedByteBuffer mBuffer;
+        private int mWriteOffset;
+
+        private Segment(@NonNull File file, int id, @NonNull MappedByteBuffer buffer) {
+            mFile = file;
+            mId = id;
+            mBuffer = buffer;
+        }
+
+        @NonNull
+        private static Segment open(@NonNull File file, int id, int size) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                // Unwritten space is zeroed, which reads as the end of the records
+                if (randomAccessFile.length() < size) randomAccessFile.setLength(size);
+                MappedByteBuffer buffer = randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+                return new Segment(file, id, buffer);
+            } finally {
+                // The mapping stays valid after closing the file
+                randomAccessFile.close();
+            }
+        }
+
+        @NonNull
+        private ByteBuffer read(int offset, int length) {
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.position(offset);
+            buffer.limit(offset + length);
+            return buffer.slice();
+        }
+
+        private void write(@NonNull byte[] record) {
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.position(mWriteOffset);
+            buffer.put(record);
+            mWriteOffset += record.length;
+        }
+
+        private void delete() {
+            mFile.delete();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe registry of the freshness of many keys, each one with its own time to live. Times
+ * are taken from a monotonic clock, so they aren't affected by changes to the device's clock.
+ * <p>
+ * Expiring keys are scheduled in a hierarchical timing wheel: {@link #LEVELS} wheels of
+ * {@link #SLOTS} slots, each slot of a level spanning a whole turn of the level below it. Tracking
+ * or refreshing a key takes constant time regardless of the amount of keys. Once {@link #start()}
+ * is called, a background thread shared by every tracker sweeps the wheel every tick and notifies the
+ * {@link IExpiryListener} of the keys that expired, so only those can be invalidated.
+ * <p>
+ * Example:
+ * <pre>
+ * MemoryCache&lt;String, User&gt; cache = new MemoryCache&lt;&gt;(1000);
+ * ExpiryTracker&lt;String&gt; expiryTracker = new ExpiryTracker&lt;&gt;(cache::remove);
+ * expiryTracker.start();
+ * ...
+ * repository.query(new KeyedTimeResolveQueryStrategy&lt;&gt;(id, expiryTracker, refreshDelta));
+ * </pre>
+ *
+ * @param <K> type of the keys
+ */
+public class ExpiryTracker<K> {
+
+    /**
+     * Default duration of a tick of the wheel, which is the precision of the sweeps.
+     */
+    public static final long DEFAULT_TICK_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Amount of slots of each wheel.
+     */
+    public static final int SLOTS = 64;
+
+    /**
+     * Amount of wheels. Expirations farther than <code>SLOTS ^ LEVELS</code> ticks are kept in the
+     * last slot of the outer wheel until they get close enough.
+     */
+    public static final int LEVELS = 4;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+    private static ScheduledExecutorService sSweepExecutor;
+
+    private final long mTickNanos;
+    private final long mOriginNanos;
+    private final IExpiryListener<K> mListener;
+    private final Map<K, Entry<K>> mEntries = new HashMap<>();
+    private final List<Set<Entry<K>>> mSlots = new ArrayList<>(LEVELS * SLOTS);
+    private long mCurrentTick;
+    private ScheduledFuture<?> mSweeps;
+
+    /**
+     * Creates a tracker whose wheel ticks every {@link #DEFAULT_TICK_MILLIS}.
+     *
+     * @param listener to notify of the expired keys
+     */
+    public ExpiryTracker(@NonNull IExpiryListener<K> listener) {
+        this(DEFAULT_TICK_MILLIS, listener);
+    }
+
+    /**
+     * Creates a tracker.
+     *
+     * @param tickMillis duration of a tick of the wheel
+     * @param listener to notify of the expired keys
+     */
+    public ExpiryTracker(@IntRange(from = 1) long tickMillis,
+                         @NonNull IExpiryListener<K> listener) {
+        mTickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        mListener = listener;
+        mOriginNanos = nanoTime();
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            mSlots.add(new LinkedHashSet<Entry<K>>());
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getSweepExecutor() {
+        if (sSweepExecutor == null) {
+            sSweepExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ExpiryTracker sweeps");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sSweepExecutor;
+    }
+
+    /**
+     * Marks the key as fresh for the given time, replacing any previous time to live.
+     *
+     * @param key to mark as fresh
+     * @param timeToLiveMillis time until the key expires
+     */
+    public synchronized void refresh(@NonNull K key, @IntRange(from = 1) long timeToLiveMillis) {
+        long deadline = nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        Entry<K> entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry<>(key);
+            mEntries.put(key, entry);
+        } else {
+            entry.unlink();
+        }
+
+        entry.mDeadlineNanos = deadline;
+        // Round up, so the key is never swept before its deadline
+        entry.mDeadlineTick = (deadline - mOriginNanos + mTickNanos - 1) / mTickNanos;
+        schedule(entry);
+    }
+
+    /**
+     * Stops tracking the key, without notifying the listener.
+     *
+     * @param key to forget
+     */
+    public synchronized void remove(@NonNull K key) {
+        Entry<K> entry = mEntries.remove(key);
+        if (entry != null) {
+            entry.unlink();
+        }
+    }
+
+    /**
+     * Keys that expired are no longer tracked once they are swept.
+     *
+     * @param key to check
+     *
+     * @return whether the key was refreshed and hasn't been removed or swept since
+     */
+    public synchronized boolean isTracked(@NonNull K key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Keys that were never refreshed, or were removed, are considered expired.
+     *
+     * @param key to check
+     *
+     * @return whether the freshness of the key ran out
+     */
+    public synchronized boolean isExpired(@NonNull K key) {
+        Entry<K> entry = mEntries.get(key);
+        return entry == null || nanoTime() - entry.mDeadlineNanos >= 0;
+    }
+
+    /**
+     * @param key to check
+     *
+     * @return the time left until the key expires, or 0 if it already did or isn't tracked
+     */
+    public synchronized long getRemainingNanos(@NonNull K key) {
+        Entry<K> entry = mEntries.get(key);
+        return entry == null ? 0 : Math.max(0, entry.mDeadlineNanos - nanoTime());
+    }
+
+    /**
+     * @return the amount of keys being tracked
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Advances the wheel up to the current tick, forgetting every expired key and notifying the
+     * listener of them. The listener is called from the calling thread, outside of any lock.
+     * <p>
+     * A listener failing for a key doesn't keep the other keys from being notified, the first
+     * failure is thrown once every key was notified.
+     *
+     * @return the amount of keys that expired
+     */
+    public int sweep() {
+        List<K> expired = new ArrayList<>();
+        synchronized (this) {
+            long nowTick = (nanoTime() - mOriginNanos) / mTickNanos;
+            while (mCurrentTick < nowTick) {
+                mCurrentTick++;
+
+                // Entries of outer wheels are moved inwards when the wheel below completes a turn
+                for (int level = 1; level < LEVELS; level++) {
+                    if ((mCurrentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                        break;
+                    }
+                    for (Entry<K> entry : drain(level, mCurrentTick)) {
+                        if (entry.mDeadlineTick <= mCurrentTick) {
+                            expire(entry, expired);
+                        } else {
+                            schedule(entry);
+                        }
+                    }
+                }
+
+                for (Entry<K> entry : drain(0, mCurrentTick)) {
+                    expire(entry, expired);
+                }
+            }
+        }
+
+        RuntimeException failure = null;
+        for (K key : expired) {
+            try {
+                mListener.onExpired(key);
+            } catch (RuntimeException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+        return expired.size();
+    }
+
+    /**
+     * Starts sweeping the wheel every tick from a background thread. Does nothing if it was
+     * already started.
+     */
+    public synchronized void start() {
+        if (mSweeps != null) {
+            return;
+        }
+
+        mSweeps = getSweepExecutor().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    // The thread is shared by every tracker, a failing listener must not stop it
+                }
+            }
+        }, mTickNanos, mTickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the background sweeps. Keys still expire, but the listener is only notified on
+     * {@link #sweep()}.
+     */
+    public synchronized void stop() {
+        if (mSweeps != null) {
+            mSweeps.cancel(false);
+            mSweeps = null;
+        }
+    }
+
+    /**
+     * @return the current time of the monotonic clock, in nanoseconds
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private void schedule(@NonNull Entry<K> entry) {
+        long delta = entry.mDeadlineTick - mCurrentTick;
+        if (delta <= 0) {
+            // Already due, it's expired on the next tick
+            delta = 1;
+        }
+        delta = Math.min(delta, MAX_TICKS - 1);
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+
+        long tick = mCurrentTick + delta;
+        Set<Entry<K>> slot = mSlots.get(level * SLOTS + slotIndex(level, tick));
+        slot.add(entry);
+        entry.mSlot = slot;
+    }
+
+    @NonNull
+    private List<Entry<K>> drain(int level, long tick) {
+        Set<Entry<K>> slot = mSlots.get(level * SLOTS + slotIndex(level, tick));
+        List<Entry<K>> entries = new ArrayList<>(slot);
+        slot.clear();
+        for (Entry<K> entry : entries) {
+            entry.mSlot = null;
+        }
+        return entries;
+    }
+
+    private void expire(@NonNull Entry<K> entry, @NonNull List<K> expired) {
+        mEntries.remove(entry.mKey);
+        expired.add(entry.mKey);
+    }
+
+    private static int slotIndex(int level, long tick) {
+        return (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+    }
+
+    /**
+     * Freshness of a key, and the slot of the wheel it's scheduled in.
+     */
+    private static final class Entry<K> {
+
+        private final K mKey;
+        private long mDeadlineNanos;
+        private long mDeadlineTick;
+        @Nullable private Set<Entry<K>> mSlot;
+
+        private Entry(@NonNull K key) {
+            mKey = key;
+        }
+
+        private void unlink() {
+            if (mSlot != null) {
+                mSlot.remove(this);
+                mSlot = null;
+            }
+        }
+    }
+}
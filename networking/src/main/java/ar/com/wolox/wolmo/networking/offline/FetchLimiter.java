@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Limits the amount of fetches in progress at the same time. Fetches over the limit are queued
+ * and started, in order, as the ones in progress release their slot. It never blocks.
+ */
+final class FetchLimiter {
+
+    private final int mMaxConcurrentFetches;
+    private final Queue<Runnable> mWaitingFetches = new ArrayDeque<>();
+    private int mRunningFetches;
+
+    FetchLimiter(@IntRange(from = 1) int maxConcurrentFetches) {
+        mMaxConcurrentFetches = maxConcurrentFetches;
+    }
+
+    /**
+     * Starts the fetch if there is a free slot, otherwise queues it. Every started fetch must call
+     * {@link #release()} once it finishes.
+     *
+     * @param fetch to start
+     */
+    void execute(@NonNull Runnable fetch) {
+        synchronized (this) {
+            if (mRunningFetches >= mMaxConcurrentFetches) {
+                mWaitingFetches.add(fetch);
+                return;
+            }
+            mRunningFetches++;
+        }
+        fetch.run();
+    }
+
+    /**
+     * Releases the slot of a finished fetch, starting the next queued one in it.
+     */
+    void release() {
+        Runnable next;
+        synchronized (this) {
+            next = mWaitingFetches.poll();
+            if (next == null) {
+                mRunningFetches--;
+                return;
+            }
+        }
+        next.run();
+    }
+
+    synchronized int getRunningCount() {
+        return mRunningFetches;
+    }
+
+    synchronized int getWaitingCount() {
+        return mWaitingFetches.size();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Cache of values by key, meant to be used as the cache of a {@link Repository}.
+ * Implementations must be thread-safe.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the cached values
+ *
+ * @see MemoryCache
+ * @see KeyedTimeResolveQueryStrategy
+ */
+public interface IKeyedCache<K, V> {
+
+    /**
+     * @param key of the value
+     *
+     * @return the cached value, or <code>null</code> if it's not cached
+     */
+    @Nullable
+    V get(@NonNull K key);
+
+    /**
+     * Caches the value, replacing any previous value for the key.
+     *
+     * @param key of the value
+     * @param value to cache
+     */
+    void put(@NonNull K key, @NonNull V value);
+
+    /**
+     * Removes the value of the key, if cached.
+     *
+     * @param key of the value to remove
+     */
+    void remove(@NonNull K key);
+
+    /**
+     * Removes every cached value.
+     */
+    void clear();
+}
@@ -29,7 +29,9 @@ package ar.com.wolox.wolmo.networking.offline;
 public interface IRepositoryCallback<D> {
 
     /**
-     * Success case that exposes the data retrieved as a parameter.
+     * Success case that exposes the data retrieved as a parameter. With
+     * {@link Repository#CACHE_STALE_WHILE_REVALIDATE} it may be called twice, first with the
+     * cached data and then with the fresh one.
      *
      * @param data retrieved information.
      */
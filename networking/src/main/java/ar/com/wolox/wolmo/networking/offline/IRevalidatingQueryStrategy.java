@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import okhttp3.Request;
+
+/**
+ * {@link Repository.QueryStrategy} that keeps stale data so it can be revalidated with a
+ * conditional request instead of downloaded again.
+ * <p>
+ * When {@link #readLocalSource(Object)} misses but there is stale data, the {@link Repository}
+ * calls {@link #onRevalidate(Request)} before making the request. If the server answers
+ * "304 Not Modified", the stale data is refreshed with {@link #onNotModified(Object, Object)} and
+ * notified without parsing a body.
+ *
+ * @param <T> class which is used for interacting with the {@link C} cache
+ * @param <C> type of cache to use
+ *
+ * @see ConditionalQueryStrategy
+ */
+public interface IRevalidatingQueryStrategy<T, C> extends Repository.QueryStrategy<T, C> {
+
+    /**
+     * Called when {@link #readLocalSource(Object)} misses.
+     *
+     * @param cache to retrieve information from
+     *
+     * @return the stale data, or <code>null</code> if there is none
+     */
+    @Nullable
+    T readStaleLocalSource(@NonNull C cache);
+
+    /**
+     * Called before making a request to revalidate stale data. It usually arms the request in a
+     * {@link ValidatorStore}.
+     *
+     * @param request to be made
+     */
+    void onRevalidate(@NonNull Request request);
+
+    /**
+     * Called when the server confirmed the stale data didn't change, to consider it fresh again.
+     *
+     * @param data confirmed by the server
+     * @param cache to interact with
+     */
+    void onNotModified(@NonNull T data, @NonNull C cache);
+}
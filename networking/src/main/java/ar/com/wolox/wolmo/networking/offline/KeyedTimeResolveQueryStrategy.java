@@ -0,0 +1,117 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * {@link TimeResolveQueryStrategy} for a single key of an {@link IKeyedCache}. The value of the
+ * key is read while clean, replaced when refreshed and removed when invalidated.
+ * <p>
+ * The refresh moment is kept by the strategy, so the same instance must be used for every query
+ * of the key. When an {@link ExpiryTracker} is given, the freshness of the key is kept by it
+ * instead, so new instances can be created for each query and the tracker can invalidate only the
+ * expired keys in the background.
+ *
+ * @param <K> type of the keys of the cache
+ * @param <T> type of the cached values
+ */
+public class KeyedTimeResolveQueryStrategy<K, T>
+        extends TimeResolveQueryStrategy<T, IKeyedCache<K, T>> {
+
+    private final K mKey;
+    @Nullable private final ExpiryTracker<K> mExpiryTracker;
+
+    /**
+     * Creates an instance of the class with a refresh delta time.
+     *
+     * @param key of the value to query
+     * @param refreshDeltaInMillis to use
+     */
+    public KeyedTimeResolveQueryStrategy(@NonNull K key,
+                                         @IntRange(from = 1) long refreshDeltaInMillis) {
+        super(refreshDeltaInMillis);
+        mKey = key;
+        mExpiryTracker = null;
+    }
+
+    /**
+     * Creates an instance of the class with a refresh delta time, keeping the freshness of the key
+     * in a shared tracker. The freshness of keys the tracker doesn't know, like the ones of a
+     * {@link DiskCache} after a restart, is unknown: they are fetched again, but their value is
+     * kept in the cache until it's refreshed.
+     *
+     * @param key of the value to query
+     * @param expiryTracker to keep the freshness of the key in
+     * @param refreshDeltaInMillis to use
+     */
+    public KeyedTimeResolveQueryStrategy(@NonNull K key, @NonNull ExpiryTracker<K> expiryTracker,
+                                         @IntRange(from = 1) long refreshDeltaInMillis) {
+        super(refreshDeltaInMillis);
+        mKey = key;
+        mExpiryTracker = expiryTracker;
+    }
+
+    /**
+     * Creates an instance of the class with the {@link #DEFAULT_REFRESH_DELTA_TIME}.
+     *
+     * @param key of the value to query
+     */
+    public KeyedTimeResolveQueryStrategy(@NonNull K key) {
+        super();
+        mKey = key;
+        mExpiryTracker = null;
+    }
+
+    @Override
+    public void invalidate(@NonNull IKeyedCache<K, T> cache) {
+        if (mExpiryTracker != null && !mExpiryTracker.isTracked(mKey)) return;
+        cache.remove(mKey);
+    }
+
+    @Override
+    public T cleanReadLocalSource(@NonNull IKeyedCache<K, T> cache) {
+        return cache.get(mKey);
+    }
+
+    @Override
+    public void refresh(@NonNull T data, @NonNull IKeyedCache<K, T> cache) {
+        cache.put(mKey, data);
+    }
+
+    @Override
+    protected void updateRefreshMoment() {
+        if (mExpiryTracker == null) {
+            super.updateRefreshMoment();
+        } else {
+            mExpiryTracker.refresh(mKey, nextRefreshDeltaInMillis());
+        }
+    }
+
+    @Override
+    protected long getRemainingFreshnessInNanos() {
+        return mExpiryTracker == null ? super.getRemainingFreshnessInNanos()
+                : mExpiryTracker.getRemainingNanos(mKey);
+    }
+}
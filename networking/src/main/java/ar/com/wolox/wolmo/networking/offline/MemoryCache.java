@@ -0,0 +1,265 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe {@link IKeyedCache} kept in memory and bounded by weight. When the total weight
+ * of the entries exceeds the maximum, the least recently used entries are evicted.
+ * <p>
+ * Entries are spread among segments with their own lock, so concurrent callers only contend when
+ * their keys fall in the same segment. Each segment gets an equal share of the maximum weight.
+ * <p>
+ * Example:
+ * <pre>
+ * MemoryCache&lt;String, User&gt; cache = new MemoryCache&lt;&gt;(512 * 1024,
+ *         (id, user) -&gt; user.getEstimatedSize());
+ * Repository&lt;User, IKeyedCache&lt;String, User&gt;&gt; repository =
+ *         new Repository&lt;&gt;(cache, callCollapser);
+ * </pre>
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the cached values
+ */
+public class MemoryCache<K, V> implements IKeyedCache<K, V> {
+
+    /**
+     * Default amount of segments.
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 4;
+
+    private final Segment[] mSegments;
+    private final IWeigher<K, V> mWeigher;
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    /**
+     * Creates a cache bounded by the amount of entries, every entry weighs 1.
+     *
+     * @param maxEntries amount of entries to keep
+     */
+    public MemoryCache(@IntRange(from = 1) long maxEntries) {
+        this(maxEntries, new IWeigher<K, V>() {
+            @Override
+            public int weigh(@NonNull K key, @NonNull V value) {
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * Creates a cache bounded by weight, with {@link #DEFAULT_CONCURRENCY_LEVEL} segments.
+     *
+     * @param maxWeight sum of the weights of the entries to keep
+     * @param weigher to estimate the weight of each entry
+     */
+    public MemoryCache(@IntRange(from = 1) long maxWeight, @NonNull IWeigher<K, V> weigher) {
+        this(maxWeight, weigher, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a cache bounded by weight.
+     *
+     * @param maxWeight sum of the weights of the entries to keep
+     * @param weigher to estimate the weight of each entry
+     * @param concurrencyLevel amount of segments, rounded up to a power of two. It's lowered when
+     * the maximum weight is too small to be shared among them.
+     */
+    @SuppressWarnings("unchecked")
+    public MemoryCache(@IntRange(from = 1) long maxWeight, @NonNull IWeigher<K, V> weigher,
+                       @IntRange(from = 1) int concurrencyLevel) {
+        int segments = 1;
+        while (segments < concurrencyLevel && segments * 2 <= maxWeight) {
+            segments *= 2;
+        }
+
+        mWeigher = weigher;
+        // Generic arrays can't be created, but every segment belongs to this cache
+        mSegments = (Segment[]) new MemoryCache<?, ?>.Segment[segments];
+        for (int i = 0; i < segments; i++) {
+            // The remainder goes to the first segments, so no weight is lost
+            long share = maxWeight / segments + (i < maxWeight % segments ? 1 : 0);
+            mSegments[i] = new Segment(share);
+        }
+    }
+
+    @Nullable
+    @Override
+    public V get(@NonNull K key) {
+        V value = segmentFor(key).get(key);
+        if (value == null) {
+            mMissCount.incrementAndGet();
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    @Override
+    public void put(@NonNull K key, @NonNull V value) {
+        segmentFor(key).put(key, value, mWeigher.weigh(key, value));
+    }
+
+    @Override
+    public void remove(@NonNull K key) {
+        segmentFor(key).remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : mSegments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return amount of cached entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : mSegments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return sum of the weights of the cached entries
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : mSegments) {
+            weight += segment.getWeight();
+        }
+        return weight;
+    }
+
+    /**
+     * @return amount of {@link #get(Object)} calls that found a value
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return amount of {@link #get(Object)} calls that didn't find a value
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return amount of entries evicted to respect the maximum weight
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    @NonNull
+    private Segment segmentFor(@NonNull K key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return mSegments[hash & (mSegments.length - 1)];
+    }
+
+    /**
+     * Value of an entry together with its weight, so it's weighed only once.
+     */
+    private static final class Node<V> {
+
+        private final V mValue;
+        private final int mWeight;
+
+        private Node(@NonNull V value, int weight) {
+            mValue = value;
+            mWeight = weight;
+        }
+    }
+
+    /**
+     * Entries of a share of the keys, in access order, guarded by their own lock.
+     */
+    private final class Segment {
+
+        private final long mMaxWeight;
+        private final LinkedHashMap<K, Node<V>> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        private long mWeight;
+
+        private Segment(long maxWeight) {
+            mMaxWeight = maxWeight;
+        }
+
+        @Nullable
+        private synchronized V get(@NonNull K key) {
+            Node<V> node = mEntries.get(key);
+            return node == null ? null : node.mValue;
+        }
+
+        private synchronized void put(@NonNull K key, @NonNull V value, int weight) {
+            if (weight > mMaxWeight) {
+                // It would evict every other entry and then itself, the previous value goes away
+                remove(key);
+                mEvictionCount.incrementAndGet();
+                return;
+            }
+
+            Node<V> previous = mEntries.put(key, new Node<>(value, weight));
+            if (previous != null) mWeight -= previous.mWeight;
+            mWeight += weight;
+
+            // Evict from the least recently used
+            Iterator<Map.Entry<K, Node<V>>> iterator = mEntries.entrySet().iterator();
+            while (mWeight > mMaxWeight && iterator.hasNext()) {
+                mWeight -= iterator.next().getValue().mWeight;
+                iterator.remove();
+                mEvictionCount.incrementAndGet();
+            }
+        }
+
+        private synchronized void remove(@NonNull K key) {
+            Node<V> node = mEntries.remove(key);
+            if (node != null) mWeight -= node.mWeight;
+        }
+
+        private synchronized void clear() {
+            mEntries.clear();
+            mWeight = 0;
+        }
+
+        private synchronized int size() {
+            return mEntries.size();
+        }
+
+        private synchronized long getWeight() {
+            return mWeight;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import ar.com.wolox.wolmo.networking.optimizations.RequestFingerprint;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Remembers the unsuccessful responses of requests for a short time, so a {@link Repository}
+ * can fail repeated queries for a missing resource without going to the network.
+ * <p>
+ * Only the status codes given to {@link #cacheStatus(int, long)} are cached, each one with its
+ * own time to live. By default "404 Not Found" and "410 Gone" are cached for
+ * {@link #DEFAULT_TIME_TO_LIVE_MILLIS}. Requests are matched by their {@link RequestFingerprint},
+ * the same way the call collapsers do.
+ * <p>
+ * Example:
+ * <pre>
+ * NegativeCache negativeCache = new NegativeCache()
+ *         .cacheStatus(HttpURLConnection.HTTP_FORBIDDEN, TimeUnit.MINUTES.toMillis(5))
+ *         .keepErrorBodies(true);
+ * Repository&lt;User, IKeyedCache&lt;String, User&gt;&gt; repository = new Repository&lt;&gt;(cache,
+ *         callCollapser, Repository.CACHE_FIRST, ioExecutor, deliveryExecutor, negativeCache);
+ * </pre>
+ */
+public class NegativeCache {
+
+    /**
+     * Default time to live of the cached responses.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Default amount of requests to remember.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 128;
+
+    /**
+     * Maximum size of an error body to keep, bigger ones are dropped.
+     */
+    public static final int MAX_ERROR_BODY_BYTES = 16 * 1024;
+
+    private final Map<Integer, Long> mTimesToLive = new HashMap<>();
+    private final Map<String, Entry> mEntries;
+    private final String[] mVaryHeaders;
+    private volatile boolean mKeepErrorBodies;
+
+    /**
+     * Creates a cache for {@link #DEFAULT_MAX_ENTRIES} requests.
+     *
+     * @param varyHeaders names of the headers that make two requests different
+     */
+    public NegativeCache(@NonNull String... varyHeaders) {
+        this(DEFAULT_MAX_ENTRIES, varyHeaders);
+    }
+
+    /**
+     * Creates a cache. The least recently used requests are forgotten first.
+     *
+     * @param maxEntries amount of requests to remember
+     * @param varyHeaders names of the headers that make two requests different
+     */
+    public NegativeCache(@IntRange(from = 1) final int maxEntries,
+                         @NonNull String... varyHeaders) {
+        mVaryHeaders = varyHeaders;
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        mTimesToLive.put(HttpURLConnection.HTTP_NOT_FOUND, DEFAULT_TIME_TO_LIVE_MILLIS);
+        mTimesToLive.put(HttpURLConnection.HTTP_GONE, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    /**
+     * Sets the time to live of the responses with the status code.
+     *
+     * @param code of the responses
+     * @param timeToLiveMillis time to remember them, or 0 to stop caching them
+     *
+     * @return the same instance
+     */
+    @NonNull
+    public synchronized NegativeCache cacheStatus(@IntRange(from = 300) int code,
+                                                  @IntRange(from = 0) long timeToLiveMillis) {
+        if (timeToLiveMillis > 0) {
+            mTimesToLive.put(code, timeToLiveMillis);
+        } else {
+            mTimesToLive.remove(code);
+        }
+        return this;
+    }
+
+    /**
+     * Sets whether to keep the error bodies of the cached responses, up to
+     * {@link #MAX_ERROR_BODY_BYTES}. Disabled by default.
+     *
+     * @param keepErrorBodies whether to keep them
+     *
+     * @return the same instance
+     */
+    @NonNull
+    public NegativeCache keepErrorBodies(boolean keepErrorBodies) {
+        mKeepErrorBodies = keepErrorBodies;
+        return this;
+    }
+
+    /**
+     * @param request to look for
+     *
+     * @return the cached response of the request, or <code>null</code> if there is none or it
+     * expired
+     */
+    @Nullable
+    public Entry get(@NonNull Request request) {
+        String key = fingerprint(request);
+        if (key == null) return null;
+
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry == null) return null;
+            if (nanoTime() - entry.mExpiresAtNanos >= 0) {
+                mEntries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Caches an unsuccessful response of the request, if its status code is cached. When error
+     * bodies are kept, the body is read.
+     *
+     * @param request that was answered
+     * @param code of the response
+     * @param errorBody of the response
+     *
+     * @return the cached response, or <code>null</code> if it isn't cached
+     */
+    @Nullable
+    public Entry put(@NonNull Request request, int code, @Nullable ResponseBody errorBody) {
+        Long timeToLive;
+        synchronized (this) {
+            timeToLive = mTimesToLive.get(code);
+        }
+        if (timeToLive == null) return null;
+
+        String key = fingerprint(request);
+        if (key == null) return null;
+
+        Entry entry = new Entry(code, mKeepErrorBodies ? readErrorBody(errorBody) : null,
+                nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeToLive));
+        synchronized (this) {
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Forgets the cached response of the request, if any.
+     *
+     * @param request to forget
+     */
+    public void remove(@NonNull Request request) {
+        String key = fingerprint(request);
+        if (key == null) return;
+
+        synchronized (this) {
+            mEntries.remove(key);
+        }
+    }
+
+    /**
+     * Forgets every cached response.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * @return the amount of cached responses, including the expired ones not removed yet
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return the current time of the monotonic clock, in nanoseconds
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the fingerprint of the request, or <code>null</code> if its body can't be hashed
+     */
+    @Nullable
+    private String fingerprint(@NonNull Request request) {
+        try {
+            return RequestFingerprint.of(request, mVaryHeaders);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String readErrorBody(@Nullable ResponseBody errorBody) {
+        if (errorBody == null) return null;
+
+        try {
+            BufferedSource source = errorBody.source();
+            if (source.request(MAX_ERROR_BODY_BYTES + 1)) return null;
+            return source.readUtf8();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A cached unsuccessful response.
+     */
+    public static final class Entry {
+
+        private final int mCode;
+        private final String mErrorBody;
+        private final long mExpiresAtNanos;
+
+        private Entry(int code, @Nullable String errorBody, long expiresAtNanos) {
+            mCode = code;
+            mErrorBody = errorBody;
+            mExpiresAtNanos = expiresAtNanos;
+        }
+
+        /**
+         * @return the status code of the response
+         */
+        public int getCode() {
+            return mCode;
+        }
+
+        /**
+         * @return the error body of the response, or <code>null</code> if it wasn't kept
+         */
+        @Nullable
+        public String getErrorBody() {
+            return mErrorBody;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import ar.com.wolox.wolmo.core.java8.Consumer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe result of an asynchronous operation, such as a {@link Repository.Query}, that
+ * completes only once with either a value or an error.
+ * <p/>
+ * Futures can be transformed with {@link #map(Function)} and {@link #flatMap(Function)},
+ * combined with {@link #allOf(List)} and {@link #anyOf(List)}, bounded with
+ * {@link #withTimeout(long, TimeUnit)} or awaited with {@link #get()}. Callbacks and
+ * transformations run on the thread that completes the future, or on the calling thread if it
+ * already completed, so no thread handoffs are added. A callback that throws doesn't keep the
+ * rest from running.
+ * <p/>
+ * Futures of a {@link Repository.Query}, and the ones derived from them, time out on the delivery
+ * executor of the {@link Repository}, so the example below notifies the error on the main thread
+ * as every other result.
+ * <p/>
+ * Example:
+ * <pre>
+ * QueryFuture&lt;User&gt; user = userRepository.query(service.getUser(id), userStrategy).future();
+ * user.flatMap(it -&gt; friendsRepository.query(service.getFriends(it.getId()), friendsStrategy)
+ *                 .future())
+ *         .withTimeout(10, TimeUnit.SECONDS)
+ *         .onSuccess(this::showFriends)
+ *         .onError(this::showError);
+ * </pre>
+ *
+ * @param <T> type of the value
+ */
+public final class QueryFuture<T> implements Future<T> {
+
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    private static ScheduledExecutorService sTimeoutExecutor;
+
+    @Nullable private final Executor mExecutor;
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+    private List<Runnable> mListeners = new ArrayList<>();
+    private boolean mDone;
+    private T mValue;
+    private Throwable mError;
+
+    /**
+     * Creates a future to be completed with {@link #complete(Object)} or
+     * {@link #completeExceptionally(Throwable)}.
+     */
+    public QueryFuture() {
+        this(null);
+    }
+
+    /**
+     * @param executor to time out on, inherited by the futures derived from this one
+     */
+    QueryFuture(@Nullable Executor executor) {
+        mExecutor = executor;
+    }
+
+    private static synchronized ScheduledExecutorService getTimeoutExecutor() {
+        if (sTimeoutExecutor == null) {
+            sTimeoutExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "QueryFuture timeouts");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sTimeoutExecutor;
+    }
+
+    /**
+     * @param value of the future
+     * @param <T> type of the value
+     *
+     * @return a future already completed with the value
+     */
+    @NonNull
+    public static <T> QueryFuture<T> completed(@Nullable T value) {
+        QueryFuture<T> future = new QueryFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    /**
+     * @param error of the future
+     * @param <T> type of the value
+     *
+     * @return a future already completed with the error
+     */
+    @NonNull
+    public static <T> QueryFuture<T> failed(@NonNull Throwable error) {
+        QueryFuture<T> future = new QueryFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Combines many futures into one that completes with all of their values, in the same order,
+     * or with the first error among them.
+     *
+     * @param futures to combine
+     * @param <T> type of the values
+     *
+     * @return a new future
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public static <T> QueryFuture<List<T>> allOf(@NonNull List<QueryFuture<T>> futures) {
+        if (futures.isEmpty()) return completed(Collections.<T>emptyList());
+
+        final QueryFuture<List<T>> result = new QueryFuture<>(futures.get(0).mExecutor);
+
+        final Object[] values = new Object[futures.size()];
+        final AtomicInteger pending = new AtomicInteger(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            final QueryFuture<T> future = futures.get(i);
+            future.addListener(() -> {
+                if (future.mError != null) {
+                    result.completeExceptionally(future.mError);
+                    return;
+                }
+                values[index] = future.mValue;
+                if (pending.decrementAndGet() == 0) {
+                    result.complete((List<T>) Collections.unmodifiableList(Arrays.asList(values)));
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Combines many futures into one that completes with the value of the first of them that
+     * succeeds, or with the error of the last of them if every one fails.
+     *
+     * @param futures to combine
+     * @param <T> type of the values
+     *
+     * @return a new future
+     * @throws IllegalArgumentException if there are no futures to combine
+     */
+    @NonNull
+    public static <T> QueryFuture<T> anyOf(@NonNull List<QueryFuture<T>> futures) {
+        if (futures.isEmpty()) {
+            throw new IllegalArgumentException("At least one future is required");
+        }
+
+        final QueryFuture<T> result = new QueryFuture<>(futures.get(0).mExecutor);
+        final AtomicInteger pending = new AtomicInteger(futures.size());
+        for (final QueryFuture<T> future : futures) {
+            future.addListener(() -> {
+                if (future.mError == null) {
+                    result.complete(future.mValue);
+                } else if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(future.mError);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Completes the future with a value, if it isn't completed yet.
+     *
+     * @param value of the future
+     *
+     * @return whether this call completed the future
+     */
+    public boolean complete(@Nullable T value) {
+        return finish(value, null);
+    }
+
+    /**
+     * Completes the future with an error, if it isn't completed yet.
+     *
+     * @param error of the future
+     *
+     * @return whether this call completed the future
+     */
+    public boolean completeExceptionally(@NonNull Throwable error) {
+        return finish(null, error);
+    }
+
+    /**
+     * Completes the future with a {@link CancellationException}, if it isn't completed yet. It
+     * doesn't stop the operation it belongs to.
+     *
+     * @param mayInterruptIfRunning ignored, no thread is interrupted
+     *
+     * @return whether this call cancelled the future
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return completeExceptionally(new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mError instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Waits for the future to complete.
+     *
+     * @return the value of the future
+     * @throws CancellationException if it was cancelled
+     * @throws ExecutionException wrapping the error of the future, if it failed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        mLatch.await();
+        return getNow();
+    }
+
+    /**
+     * Waits for the future to complete, at most the given time.
+     *
+     * @return the value of the future
+     * @throws CancellationException if it was cancelled
+     * @throws ExecutionException wrapping the error of the future, if it failed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws TimeoutException if the future didn't complete in time
+     */
+    @Override
+    public T get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mLatch.await(timeout, unit)) throw new TimeoutException();
+        return getNow();
+    }
+
+    /**
+     * Sets a {@link Consumer} of the value, called once the future succeeds. Many of them can be
+     * set.
+     *
+     * @param successConsumer to notify the value to
+     *
+     * @return the same instance
+     */
+    @NonNull
+    public QueryFuture<T> onSuccess(@NonNull final Consumer<T> successConsumer) {
+        addListener(() -> {
+            if (mError == null) successConsumer.accept(mValue);
+        });
+        return this;
+    }
+
+    /**
+     * Sets a {@link Consumer} of the error, called once the future fails. Many of them can be
+     * set.
+     *
+     * @param errorConsumer to notify the error to
+     *
+     * @return the same instance
+     */
+    @NonNull
+    public QueryFuture<T> onError(@NonNull final Consumer<Throwable> errorConsumer) {
+        addListener(() -> {
+            if (mError != null) errorConsumer.accept(mError);
+        });
+        return this;
+    }
+
+    /**
+     * Transforms the value of the future. Errors, including the ones thrown by the function, are
+     * propagated to the new future.
+     *
+     * @param function to transform the value with
+     * @param <R> type of the new value
+     *
+     * @return a new future
+     */
+    @NonNull
+    public <R> QueryFuture<R> map(@NonNull final Function<T, R> function) {
+        final QueryFuture<R> result = new QueryFuture<>(mExecutor);
+        addListener(() -> {
+            if (mError != null) {
+                result.completeExceptionally(mError);
+                return;
+            }
+            try {
+                result.complete(function.apply(mValue));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Chains another operation that starts with the value of the future, such as a dependent
+     * query. Errors, including the ones thrown by the function, are propagated to the new future.
+     *
+     * @param function returning the future of the next operation
+     * @param <R> type of the new value
+     *
+     * @return a new future
+     */
+    @NonNull
+    public <R> QueryFuture<R> flatMap(@NonNull final Function<T, QueryFuture<R>> function) {
+        final QueryFuture<R> result = new QueryFuture<>(mExecutor);
+        addListener(() -> {
+            if (mError != null) {
+                result.completeExceptionally(mError);
+                return;
+            }
+            try {
+                final QueryFuture<R> next = function.apply(mValue);
+                next.addListener(() -> result.finish(next.mValue, next.mError));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Bounds the time to wait for the future. The operation it belongs to isn't stopped.
+     * <p/>
+     * The timeout is notified on the delivery executor of the {@link Repository} the future
+     * comes from, or on a background thread shared by every future if it doesn't come from one.
+     * Use {@link #withTimeout(long, TimeUnit, Executor)} to choose it.
+     *
+     * @param timeout to wait for the future
+     * @param unit of the timeout
+     *
+     * @return a new future with the same result, or failing with a {@link TimeoutException} if
+     * this one doesn't complete in time
+     */
+    @NonNull
+    public QueryFuture<T> withTimeout(long timeout, @NonNull TimeUnit unit) {
+        return withTimeout(timeout, unit, mExecutor == null ? DIRECT_EXECUTOR : mExecutor);
+    }
+
+    /**
+     * Bounds the time to wait for the future. The operation it belongs to isn't stopped.
+     *
+     * @param timeout to wait for the future
+     * @param unit of the timeout
+     * @param executor to notify the timeout on
+     *
+     * @return a new future with the same result, or failing with a {@link TimeoutException} if
+     * this one doesn't complete in time
+     */
+    @NonNull
+    public QueryFuture<T> withTimeout(long timeout, @NonNull TimeUnit unit,
+                                      @NonNull Executor executor) {
+        final QueryFuture<T> result = new QueryFuture<>(executor);
+        final Timeout timeoutTask = new Timeout(result, executor);
+        timeoutTask.mFuture = getTimeoutExecutor()
+                .schedule(timeoutTask, Math.max(0, unit.toMillis(timeout)), TimeUnit.MILLISECONDS);
+        addListener(() -> {
+            timeoutTask.cancel();
+            result.finish(mValue, mError);
+        });
+        return result;
+    }
+
+    private T getNow() throws ExecutionException {
+        Throwable error;
+        synchronized (this) {
+            error = mError;
+        }
+        if (error instanceof CancellationException) throw (CancellationException) error;
+        if (error != null) throw new ExecutionException(error);
+        return mValue;
+    }
+
+    /**
+     * Runs the listener once the future completes, right away if it already did. The value and
+     * error are safe to read from it.
+     */
+    private void addListener(@NonNull Runnable listener) {
+        synchronized (this) {
+            if (!mDone) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    private boolean finish(@Nullable T value, @Nullable Throwable error) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mDone) return false;
+            mDone = true;
+            mValue = value;
+            mError = error;
+            listeners = mListeners;
+            mListeners = null;
+        }
+        mLatch.countDown();
+
+        RuntimeException listenerError = null;
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                // The rest are notified anyway, the first error is rethrown once they are
+                if (listenerError == null) listenerError = e;
+            }
+        }
+        if (listenerError != null) throw listenerError;
+        return true;
+    }
+
+    /**
+     * Fails a future with a {@link TimeoutException} through an {@link Executor}. It's forgotten
+     * once cancelled, since cancelled tasks may stay in the queue until they are due.
+     */
+    private static final class Timeout implements Runnable {
+
+        private final Executor mExecutor;
+        private volatile QueryFuture<?> mResult;
+        private volatile ScheduledFuture<?> mFuture;
+
+        private Timeout(@NonNull QueryFuture<?> result, @NonNull Executor executor) {
+            mResult = result;
+            mExecutor = executor;
+        }
+
+        @Override
+        public void run() {
+            final QueryFuture<?> result = mResult;
+            mResult = null;
+            if (result == null) return;
+
+            try {
+                mExecutor.execute(() -> result.completeExceptionally(new TimeoutException()));
+            } catch (RuntimeException e) {
+                // The thread is shared by every future, a failing listener must not stop it
+            }
+        }
+
+        private void cancel() {
+            mResult = null;
+            ScheduledFuture<?> future = mFuture;
+            if (future != null) future.cancel(false);
+        }
+    }
+
+    /**
+     * Transformation of a value, which may fail.
+     *
+     * @param <T> type of the value
+     * @param <R> type of the result
+     */
+    public interface Function<T, R> {
+
+        /**
+         * @param value to transform
+         *
+         * @return the result of the transformation
+         * @throws Exception if the transformation fails, it's propagated as the error of the
+         * resulting future
+         */
+        R apply(T value) throws Exception;
+    }
+}
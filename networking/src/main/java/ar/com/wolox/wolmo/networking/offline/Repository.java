@@ -23,6 +23,7 @@
 package ar.com.wolox.wolmo.networking.offline;
 
 import androidx.annotation.IntDef;
+import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -30,19 +31,38 @@ import ar.com.wolox.wolmo.core.java8.Consumer;
 import ar.com.wolox.wolmo.networking.exception.CacheMissException;
 import ar.com.wolox.wolmo.networking.exception.NetworkResourceException;
 import ar.com.wolox.wolmo.networking.optimizations.ICallCollapser;
+import ar.com.wolox.wolmo.networking.optimizations.ICallSubscription;
 import ar.com.wolox.wolmo.networking.retrofit.callback.NetworkCallback;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.net.HttpURLConnection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import okhttp3.ResponseBody;
 import retrofit2.Call;
+import retrofit2.Response;
 
 /**
  * Handles the caching retrieval of a query and success/error notification regarding that operation.
  * <p/>
  * The main method is {@link #query} that, provided of a policy, the necessary information to
  * retrieve data and notify the user, determines the action to take and notifies accordingly.
+ * <p/>
+ * Cache reads and writes run on the I/O {@link Executor} and notifications on the delivery one,
+ * both given when creating the repository. By default everything runs on the calling thread,
+ * see {@link #Repository(Object, ICallCollapser, int, Executor, Executor)}.
  */
 public final class Repository<T, C> {
 
@@ -50,7 +70,7 @@ public final class Repository<T, C> {
      * Flags for cache access control.
      */
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef({ CACHE_NONE, CACHE_FIRST, CACHE_ONLY })
+    @IntDef({ CACHE_NONE, CACHE_FIRST, CACHE_ONLY, CACHE_STALE_WHILE_REVALIDATE })
     public @interface AccessPolicy {}
 
     /**
@@ -68,6 +88,16 @@ public final class Repository<T, C> {
      */
     public static final int CACHE_ONLY = 3;
 
+    /**
+     * Makes the queries notify the cached data right away and then make a request anyway, update
+     * the cache and notify the fresh data as a second success. If missed, it behaves as
+     * {@link #CACHE_FIRST}.
+     * <p/>
+     * Errors of the request made after a hit aren't notified, the cached data stays as the
+     * result of the query.
+     */
+    public static final int CACHE_STALE_WHILE_REVALIDATE = 4;
+
     /**
      * Default {@link AccessPolicy}. Users can modify it to set the defalt policy for future
      * instances of {@link Repository}.
@@ -77,6 +107,15 @@ public final class Repository<T, C> {
     private final C mCache;
     private final @AccessPolicy int mDefaultAccessPolicy;
     private final ICallCollapser mCallCollapser;
+    private final Executor mIoExecutor;
+    private final Executor mDeliveryExecutor;
+    @Nullable private final NegativeCache mNegativeCache;
+    // Network responses already consumed, weak so responses can be collected
+    private final Set<Response<T>> mConsumedResponses =
+            Collections.newSetFromMap(new WeakHashMap<Response<T>, Boolean>());
+    private final ConcurrentHashMap<Object, SharedQuery> mSharedQueries =
+            new ConcurrentHashMap<>();
+    private final Map<Object, List<KeyObserver>> mObservers = new HashMap<>();
 
     /**
      * Creates a repository with a default {@link AccessPolicy}.
@@ -87,9 +126,49 @@ public final class Repository<T, C> {
      */
     public Repository(@NonNull C cache, @NonNull ICallCollapser callCollapser,
                       @AccessPolicy int defaultAccessPolicy) {
+        this(cache, callCollapser, defaultAccessPolicy, Runnable::run, Runnable::run, null);
+    }
+
+    /**
+     * Creates a repository that accesses the cache with the I/O {@link Executor} and notifies
+     * with the delivery {@link Executor}, so no cache I/O happens on the thread running the
+     * queries nor on the one receiving the network responses.
+     * <p/>
+     * On Android, the delivery executor is usually the one posting to the main thread.
+     *
+     * @param cache to query for cached items
+     * @param defaultAccessPolicy that determines default interaction with cache
+     * @param ioExecutor to read and write the cache with
+     * @param deliveryExecutor to notify results with
+     */
+    public Repository(@NonNull C cache, @NonNull ICallCollapser callCollapser,
+                      @AccessPolicy int defaultAccessPolicy, @NonNull Executor ioExecutor,
+                      @NonNull Executor deliveryExecutor) {
+        this(cache, callCollapser, defaultAccessPolicy, ioExecutor, deliveryExecutor, null);
+    }
+
+    /**
+     * Same as in {@link #Repository(Object, ICallCollapser, int, Executor, Executor)}, but
+     * remembering unsuccessful responses in a {@link NegativeCache}. Requests with a cached
+     * unsuccessful response fail right away with a {@link NetworkResourceException}, without
+     * going to the network.
+     *
+     * @param cache to query for cached items
+     * @param defaultAccessPolicy that determines default interaction with cache
+     * @param ioExecutor to read and write the cache with
+     * @param deliveryExecutor to notify results with
+     * @param negativeCache to remember unsuccessful responses in, or <code>null</code> to not
+     * remember them
+     */
+    public Repository(@NonNull C cache, @NonNull ICallCollapser callCollapser,
+                      @AccessPolicy int defaultAccessPolicy, @NonNull Executor ioExecutor,
+                      @NonNull Executor deliveryExecutor, @Nullable NegativeCache negativeCache) {
         mCache = cache;
         mDefaultAccessPolicy = defaultAccessPolicy;
         mCallCollapser = callCollapser;
+        mIoExecutor = ioExecutor;
+        mDeliveryExecutor = deliveryExecutor;
+        mNegativeCache = negativeCache;
     }
 
     /**
@@ -116,23 +195,88 @@ public final class Repository<T, C> {
      */
     public Query<T> query(@AccessPolicy final int policy, @NonNull final Call<T> call,
                           @NonNull final QueryStrategy<T, C> queryStrategy) {
-        return new Query<T>() {
+        return new Query<T>(mDeliveryExecutor) {
             @Override
             public void run() {
                 if (!accessCache(policy)) {
-                    fetchData(call, queryStrategy, this);
+                    fetchData(call, queryStrategy, this, true, null, false);
                     return;
                 }
 
-                T cachedData = queryStrategy.readLocalSource(mCache);
-                if (cachedData != null) {
-                    doOnSuccess(cachedData);
-                } else {
-                    if (policy == CACHE_ONLY) {
-                        doOnError(new CacheMissException());
-                    } else {
-                        fetchData(call, queryStrategy, this);
+                mIoExecutor.execute(() -> {
+                    boolean notifiedCachedData = false;
+                    try {
+                        T cachedData = queryStrategy.readLocalSource(mCache);
+                        if (cachedData != null) {
+                            boolean revalidate = policy == CACHE_STALE_WHILE_REVALIDATE;
+                            deliverSuccess(this, cachedData, !revalidate);
+                            notifiedCachedData = true;
+                            if (revalidate) {
+                                fetchData(call, queryStrategy, this, false, null, false);
+                            }
+                        } else {
+                            if (policy == CACHE_ONLY) {
+                                deliverError(this, new CacheMissException());
+                            } else {
+                                fetchData(call, queryStrategy, this, true,
+                                        readStaleData(queryStrategy), true);
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        // Nobody would see it on the I/O executor, so it completes the query
+                        deliverFailure(this, e, !notifiedCachedData);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Same as in {@link #query(int, Call, QueryStrategy)}, but queries with the same key that run
+     * while one of them is in progress join it instead of running on their own. The cache is
+     * read, the request is made and the cache is written only once, and every joined query is
+     * notified with the result. The calls of the joined queries are left unused.
+     * <p/>
+     * Queries joining after the first notification of a
+     * {@link #CACHE_STALE_WHILE_REVALIDATE} query receive the latest notified data first.
+     * <p/>
+     * Cancelling a query only stops its notifications, the shared query is cancelled once every
+     * query that joined it is.
+     * <p/>
+     * The data fetched by keyed queries is also notified to the observers of the key, see
+     * {@link #observe(Object, QueryStrategy, Consumer)}.
+     *
+     * @param key that identifies the query, queries with equal keys must be interchangeable
+     * @param policy to use for the query
+     * @param call request that retrieves asked information
+     * @param queryStrategy that determines how to react to local/network actions
+     *
+     * @see #query(int, Call, QueryStrategy)
+     */
+    public Query<T> query(@NonNull final Object key, @AccessPolicy final int policy,
+                          @NonNull final Call<T> call,
+                          @NonNull final QueryStrategy<T, C> queryStrategy) {
+        return new Query<T>(mDeliveryExecutor) {
+            @Override
+            public void run() {
+                while (true) {
+                    SharedQuery sharedQuery = mSharedQueries.get(key);
+                    if (sharedQuery == null) {
+                        Query<T> repositoryQuery = query(policy, call, queryStrategy);
+                        repositoryQuery.key = key;
+                        SharedQuery newSharedQuery = new SharedQuery(key, repositoryQuery);
+                        sharedQuery = mSharedQueries.putIfAbsent(key, newSharedQuery);
+                        if (sharedQuery == null) {
+                            newSharedQuery.join(this);
+                            newSharedQuery.start();
+                            return;
+                        }
                     }
+
+                    if (sharedQuery.join(this)) return;
+
+                    // It completed while joining, make sure it's gone and try again
+                    mSharedQueries.remove(key, sharedQuery);
                 }
             }
         };
@@ -189,6 +333,77 @@ public final class Repository<T, C> {
         query(mDefaultAccessPolicy, call, queryStrategy, callback);
     }
 
+    /**
+     * Observes the data of a key. The consumer is notified of the data currently cached, read
+     * with the given strategy, and then of every data fetched, or confirmed unchanged by the
+     * server, by a keyed query with an equal key, see
+     * {@link #query(Object, int, Call, QueryStrategy)}. Reading the cache is skipped if data
+     * was fetched first.
+     * <p/>
+     * Only keyed queries notify observers. Data written by queries without a key, or written to
+     * the cache by other means, isn't notified even if it replaces the observed entry.
+     * <p/>
+     * Notifications run on the delivery executor and are conflated: if new data arrives while
+     * the previous one is still waiting to be delivered, or being consumed, only the latest one is
+     * delivered next.
+     *
+     * @param key of the data to observe
+     * @param queryStrategy to read the cached data with
+     * @param consumer to notify the data to
+     *
+     * @return an {@link Observation} to stop observing the key
+     */
+    @NonNull
+    public Observation observe(@NonNull Object key,
+                               @NonNull final QueryStrategy<T, C> queryStrategy,
+                               @NonNull Consumer<T> consumer) {
+        final KeyObserver observer = new KeyObserver(key, consumer);
+        synchronized (mObservers) {
+            List<KeyObserver> observers = mObservers.get(key);
+            if (observers == null) {
+                observers = new ArrayList<>();
+                mObservers.put(key, observers);
+            }
+            observers.add(observer);
+        }
+
+        mIoExecutor.execute(() -> {
+            if (observer.isCancelled()) return;
+            T cachedData;
+            try {
+                cachedData = queryStrategy.readLocalSource(mCache);
+            } catch (RuntimeException e) {
+                // Observations have no error notifications, it's handled as a cache miss
+                return;
+            }
+            if (cachedData != null) observer.offer(cachedData, true);
+        });
+        return observer;
+    }
+
+    /**
+     * Creates an empty {@link BatchQuery} that makes at most
+     * {@link BatchQuery#DEFAULT_MAX_CONCURRENT_FETCHES} requests at the same time.
+     *
+     * @return a new batch to add queries to
+     */
+    public BatchQuery<T, C> batch() {
+        return batch(BatchQuery.DEFAULT_MAX_CONCURRENT_FETCHES);
+    }
+
+    /**
+     * Creates an empty {@link BatchQuery}, to run many queries together and be notified once all
+     * of them complete.
+     *
+     * @param maxConcurrentFetches amount of requests of the batch made at the same time, the rest
+     * wait for one of them to finish
+     *
+     * @return a new batch to add queries to
+     */
+    public BatchQuery<T, C> batch(@IntRange(from = 1) int maxConcurrentFetches) {
+        return new BatchQuery<>(this, maxConcurrentFetches);
+    }
+
     /**
      * @param policy policy to check
      *
@@ -200,39 +415,465 @@ public final class Repository<T, C> {
 
     /**
      * Makes a request and notifies accordingly. In case of success,
-     * {@link QueryStrategy#consumeRemoteSource(Object, Object)} is called to impact the change.
+     * {@link QueryStrategy#consumeRemoteSource(Object, Object)} is called on the I/O executor to
+     * impact the change.
+     * <p/>
+     * When the request is collapsed with others, every query receives the same response but the
+     * change is impacted only once, by the first strategy to get it, the rest of the queries are
+     * just notified. Strategies of collapsed queries are expected to impact the same change, as
+     * it happens when a new strategy is created for every query.
+     * <p/>
+     * Requests with an unsuccessful response in the {@link NegativeCache} fail without being
+     * made.
      *
      * @param call request to be done
      * @param queryStrategy that determines how to react to local/network actions
      * @param repositoryQuery to notify to
+     * @param notifyErrors whether errors must be notified, they aren't when revalidating data
+     * that was already notified from cache
+     * @param staleData to notify if the server answers "304 Not Modified"
+     * @param retryNotModified whether to make the request again if the server answers "304 Not
+     * Modified" and there is no stale data, which happens when it was collapsed with a request
+     * that was made conditional by another query
      *
      * @throws IllegalStateException if the <code>call</code> is either executed or cancelled.
      */
     private void fetchData(@NonNull final Call<T> call,
                            @NonNull final QueryStrategy<T, C> queryStrategy,
-                           @NonNull final Query<T> repositoryQuery) {
+                           @NonNull final Query<T> repositoryQuery,
+                           final boolean notifyErrors, @Nullable final T staleData,
+                           final boolean retryNotModified) {
         if (call.isExecuted() || call.isCanceled()) {
             throw new IllegalStateException("Call should be ready to use");
         }
+        if (repositoryQuery.isCancelled()) return;
+
+        NegativeCache.Entry negativeEntry =
+                mNegativeCache == null ? null : mNegativeCache.get(call.request());
+        if (negativeEntry != null) {
+            deliverFailure(repositoryQuery, new NetworkResourceException(
+                    call.request().url().toString(), negativeEntry.getCode(),
+                    negativeEntry.getErrorBody()), notifyErrors);
+            return;
+        }
+
+        final FetchLimiter fetchLimiter = repositoryQuery.fetchLimiter;
+        if (fetchLimiter == null) {
+            enqueue(call, queryStrategy, repositoryQuery, notifyErrors, staleData,
+                    retryNotModified, null);
+        } else {
+            fetchLimiter.execute(() -> enqueue(call, queryStrategy, repositoryQuery, notifyErrors,
+                    staleData, retryNotModified, fetchLimiter));
+        }
+    }
+
+    /**
+     * Enqueues the request of {@link #fetchData}, releasing the slot of the {@link FetchLimiter}
+     * when it finishes, if any. Cancelling the query unsubscribes from the {@link ICallCollapser},
+     * which cancels the call if no one else is waiting for it.
+     */
+    @SuppressWarnings("unchecked")
+    private void enqueue(@NonNull final Call<T> call,
+                         @NonNull final QueryStrategy<T, C> queryStrategy,
+                         @NonNull final Query<T> repositoryQuery,
+                         final boolean notifyErrors, @Nullable final T staleData,
+                         final boolean retryNotModified,
+                         @Nullable final FetchLimiter fetchLimiter) {
+        if (repositoryQuery.isCancelled()) {
+            if (fetchLimiter != null) fetchLimiter.release();
+            return;
+        }
+        // Armed only when the request is actually made, so requests that end early aren't
+        if (staleData != null && queryStrategy instanceof IRevalidatingQueryStrategy) {
+            ((IRevalidatingQueryStrategy<T, C>) queryStrategy).onRevalidate(call.request());
+        }
+
+        ICallSubscription subscription = mCallCollapser.subscribe(call, new NetworkCallback<T>() {
+            private Response<T> mResponse;
+
+            @Override
+            public void onResponse(Call<T> call, Response<T> response) {
+                if (fetchLimiter != null) fetchLimiter.release();
+                mResponse = response;
+                super.onResponse(call, response);
+            }
+
+            @Override
+            public void onFailure(Call<T> call, Throwable t) {
+                if (fetchLimiter != null) fetchLimiter.release();
+                super.onFailure(call, t);
+            }
 
-        mCallCollapser.enqueue(call, new NetworkCallback<T>() {
             @Override
             public void onResponseSuccessful(T data) {
-                queryStrategy.consumeRemoteSource(data, mCache);
-                repositoryQuery.doOnSuccess(data);
+                if (mNegativeCache != null) mNegativeCache.remove(call.request());
+                if (!markConsumed(mResponse)) {
+                    deliverSuccess(repositoryQuery, data, true);
+                    if (repositoryQuery.key != null) publish(repositoryQuery.key, data);
+                    return;
+                }
+
+                mIoExecutor.execute(() -> {
+                    try {
+                        queryStrategy.consumeRemoteSource(data, mCache);
+                    } catch (RuntimeException e) {
+                        deliverFailure(repositoryQuery, e, notifyErrors);
+                        return;
+                    }
+                    deliverSuccess(repositoryQuery, data, true);
+                    if (repositoryQuery.key != null) publish(repositoryQuery.key, data);
+                });
             }
 
             @Override
             public void onResponseFailed(ResponseBody responseBody, int code) {
-                repositoryQuery.doOnError(
-                        new NetworkResourceException(call.request().url().toString(), code));
+                if (code == HttpURLConnection.HTTP_NOT_MODIFIED && staleData != null) {
+                    mIoExecutor.execute(() -> {
+                        try {
+                            ((IRevalidatingQueryStrategy<T, C>) queryStrategy)
+                                    .onNotModified(staleData, mCache);
+                        } catch (RuntimeException e) {
+                            deliverFailure(repositoryQuery, e, notifyErrors);
+                            return;
+                        }
+                        deliverSuccess(repositoryQuery, staleData, true);
+                        if (repositoryQuery.key != null) publish(repositoryQuery.key, staleData);
+                    });
+                } else if (code == HttpURLConnection.HTTP_NOT_MODIFIED && retryNotModified) {
+                    fetchData(call.clone(), queryStrategy, repositoryQuery, notifyErrors, null,
+                            false);
+                } else {
+                    NegativeCache.Entry negativeEntry = mNegativeCache == null ? null
+                            : mNegativeCache.put(call.request(), code, responseBody);
+                    onError(new NetworkResourceException(call.request().url().toString(), code,
+                            negativeEntry == null ? null : negativeEntry.getErrorBody()));
+                }
             }
 
             @Override
             public void onCallFailure(@NonNull Throwable throwable) {
-                repositoryQuery.doOnError(throwable);
+                onError(throwable);
+            }
+
+            private void onError(@NonNull Throwable throwable) {
+                deliverFailure(repositoryQuery, throwable, notifyErrors);
             }
         });
+
+        final AtomicBoolean unsubscribed = new AtomicBoolean();
+        repositoryQuery.setCancelAction(() -> {
+            if (!unsubscribed.compareAndSet(false, true)) return;
+            subscription.unsubscribe();
+            // The callback won't be notified, so it won't release the slot
+            if (subscription.isUnsubscribed() && fetchLimiter != null) fetchLimiter.release();
+        });
+    }
+
+    /**
+     * Reads the stale data of an {@link IRevalidatingQueryStrategy}, the request to revalidate it
+     * is prepared by {@link #enqueue} right before it's made.
+     *
+     * @return the stale data, or <code>null</code> if the strategy doesn't keep it or there is
+     * none
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private T readStaleData(@NonNull QueryStrategy<T, C> queryStrategy) {
+        if (!(queryStrategy instanceof IRevalidatingQueryStrategy)) return null;
+
+        return ((IRevalidatingQueryStrategy<T, C>) queryStrategy).readStaleLocalSource(mCache);
+    }
+
+    /**
+     * @return whether it's the first time the response is consumed
+     */
+    private boolean markConsumed(@NonNull Response<T> response) {
+        synchronized (mConsumedResponses) {
+            return mConsumedResponses.add(response);
+        }
+    }
+
+    /**
+     * Notifies the data to every observer of the key.
+     */
+    private void publish(@NonNull Object key, T data) {
+        List<KeyObserver> observers;
+        synchronized (mObservers) {
+            List<KeyObserver> keyObservers = mObservers.get(key);
+            if (keyObservers == null) return;
+            observers = new ArrayList<>(keyObservers);
+        }
+
+        for (KeyObserver observer : observers) {
+            observer.offer(data, false);
+        }
+    }
+
+    /**
+     * @param last whether the query won't notify anything else
+     */
+    private void deliverSuccess(@NonNull final Query<T> repositoryQuery, final T data,
+                                final boolean last) {
+        mDeliveryExecutor.execute(() -> {
+            repositoryQuery.doOnSuccess(data);
+            if (last) repositoryQuery.doOnComplete();
+        });
+    }
+
+    /**
+     * Errors are always the last notification of a query.
+     */
+    private void deliverError(@NonNull final Query<T> repositoryQuery,
+                              @NonNull final Throwable throwable) {
+        mDeliveryExecutor.execute(() -> {
+            repositoryQuery.doOnError(throwable);
+            repositoryQuery.doOnComplete();
+        });
+    }
+
+    /**
+     * Notifies the error, or only completes the query if errors must not be notified.
+     */
+    private void deliverFailure(@NonNull final Query<T> repositoryQuery,
+                                @NonNull final Throwable throwable, boolean notifyErrors) {
+        if (notifyErrors) {
+            deliverError(repositoryQuery, throwable);
+        } else {
+            mDeliveryExecutor.execute(repositoryQuery::doOnComplete);
+        }
+    }
+
+    /**
+     * A keyed query in progress and the queries that joined it.
+     * <p/>
+     * Every notification to the joined queries, including the ones catching up with what was
+     * notified before they joined, is queued in order and delivered one at a time on the delivery
+     * executor. The shared query notifies on it already, so its notifications are delivered right
+     * away unless others are queued before them.
+     */
+    private final class SharedQuery {
+
+        private final Object mKey;
+        private final Query<T> mRepositoryQuery;
+        private final List<Query<T>> mQueries = new ArrayList<>();
+        private final Queue<Runnable> mNotifications = new ArrayDeque<>();
+        private boolean mDelivering;
+        private boolean mHasData;
+        private T mLatestData;
+        private Throwable mError;
+        private boolean mCompleted;
+
+        private SharedQuery(@NonNull Object key, @NonNull Query<T> repositoryQuery) {
+            mKey = key;
+            mRepositoryQuery = repositoryQuery;
+        }
+
+        /**
+         * @return <code>false</code> if it already completed and can't be joined
+         */
+        private boolean join(@NonNull final Query<T> repositoryQuery) {
+            boolean deliver = false;
+            synchronized (this) {
+                if (mCompleted) return false;
+                mQueries.add(repositoryQuery);
+
+                // Catch up with what was already notified
+                final Throwable error = mError;
+                final T latestData = mLatestData;
+                if (error != null) {
+                    deliver = enqueueNotification(() -> repositoryQuery.doOnError(error));
+                } else if (mHasData) {
+                    deliver = enqueueNotification(() -> repositoryQuery.doOnSuccess(latestData));
+                }
+            }
+            if (deliver) mDeliveryExecutor.execute(this::deliverNotifications);
+            repositoryQuery.setCancelAction(() -> leave(repositoryQuery));
+            return true;
+        }
+
+        /**
+         * Removes a cancelled query. When the last one leaves, the shared query is cancelled.
+         */
+        private void leave(@NonNull Query<T> repositoryQuery) {
+            synchronized (this) {
+                if (!mQueries.remove(repositoryQuery) || !mQueries.isEmpty() || mCompleted) return;
+                mCompleted = true;
+            }
+            mSharedQueries.remove(mKey, this);
+            mRepositoryQuery.cancel();
+        }
+
+        private void start() {
+            synchronized (this) {
+                // Every query may have left already
+                if (mCompleted) return;
+            }
+            mRepositoryQuery.onSuccess(this::onSuccess).onError(this::onError);
+            mRepositoryQuery.completeAction = this::onComplete;
+            mRepositoryQuery.run();
+        }
+
+        private void onSuccess(final T data) {
+            boolean deliver;
+            synchronized (this) {
+                mHasData = true;
+                mLatestData = data;
+                final List<Query<T>> queries = new ArrayList<>(mQueries);
+                deliver = enqueueNotification(() -> {
+                    for (Query<T> repositoryQuery : queries) {
+                        repositoryQuery.doOnSuccess(data);
+                    }
+                });
+            }
+            if (deliver) deliverNotifications();
+        }
+
+        private void onError(final Throwable throwable) {
+            boolean deliver;
+            synchronized (this) {
+                mError = throwable;
+                final List<Query<T>> queries = new ArrayList<>(mQueries);
+                deliver = enqueueNotification(() -> {
+                    for (Query<T> repositoryQuery : queries) {
+                        repositoryQuery.doOnError(throwable);
+                    }
+                });
+            }
+            if (deliver) deliverNotifications();
+        }
+
+        private void onComplete() {
+            boolean deliver;
+            synchronized (this) {
+                mCompleted = true;
+                final List<Query<T>> queries = new ArrayList<>(mQueries);
+                deliver = enqueueNotification(() -> {
+                    for (Query<T> repositoryQuery : queries) {
+                        repositoryQuery.doOnComplete();
+                    }
+                });
+            }
+            mSharedQueries.remove(mKey, this);
+            if (deliver) deliverNotifications();
+        }
+
+        /**
+         * Must be called holding the lock, so notifications are queued in the same order the
+         * state changes.
+         *
+         * @return whether the caller must start delivering the queued notifications, once the
+         * lock is released
+         */
+        private boolean enqueueNotification(@NonNull Runnable notification) {
+            mNotifications.add(notification);
+            if (mDelivering) return false;
+            mDelivering = true;
+            return true;
+        }
+
+        private void deliverNotifications() {
+            while (true) {
+                Runnable notification;
+                synchronized (this) {
+                    notification = mNotifications.poll();
+                    if (notification == null) {
+                        mDelivering = false;
+                        return;
+                    }
+                }
+                notification.run();
+            }
+        }
+    }
+
+    /**
+     * An observer of a key, delivering the latest data offered to it.
+     */
+    private final class KeyObserver implements Observation {
+
+        private final Object mKey;
+        private final Consumer<T> mConsumer;
+        private T mPendingData;
+        private boolean mHasPendingData;
+        private boolean mDeliveryScheduled;
+        private boolean mPublished;
+        private volatile boolean mCancelled;
+
+        private KeyObserver(@NonNull Object key, @NonNull Consumer<T> consumer) {
+            mKey = key;
+            mConsumer = consumer;
+        }
+
+        /**
+         * @param cached whether the data was read from the cache, it's ignored if fresher data
+         * was already published
+         */
+        private void offer(T data, boolean cached) {
+            synchronized (this) {
+                if (mCancelled || (cached && mPublished)) return;
+                if (!cached) mPublished = true;
+                mPendingData = data;
+                mHasPendingData = true;
+
+                // The scheduled delivery will pick it up, replacing the previous data
+                if (mDeliveryScheduled) return;
+                mDeliveryScheduled = true;
+            }
+            mDeliveryExecutor.execute(this::deliver);
+        }
+
+        private void deliver() {
+            while (true) {
+                T data;
+                synchronized (this) {
+                    if (!mHasPendingData || mCancelled) {
+                        mDeliveryScheduled = false;
+                        return;
+                    }
+                    data = mPendingData;
+                    mPendingData = null;
+                    mHasPendingData = false;
+                }
+                mConsumer.accept(data);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                mCancelled = true;
+                mPendingData = null;
+                mHasPendingData = false;
+            }
+
+            synchronized (mObservers) {
+                List<KeyObserver> observers = mObservers.get(mKey);
+                if (observers != null && observers.remove(this) && observers.isEmpty()) {
+                    mObservers.remove(mKey);
+                }
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * Handle to stop observing a key, see {@link #observe(Object, QueryStrategy, Consumer)}.
+     */
+    public interface Observation {
+
+        /**
+         * Stops notifying the consumer. Data waiting to be delivered is dropped.
+         */
+        void cancel();
+
+        /**
+         * @return whether {@link #cancel()} was called
+         */
+        boolean isCancelled();
     }
 
     /**
@@ -271,15 +912,31 @@ public final class Repository<T, C> {
      * <p/>
      * Note that calling {@link #onSuccess(Consumer)} and {@link #onError(Consumer)} is not
      * mandatory for calling {@link #run()} in case a user doesn't care about the result.
+     * <p/>
+     * The result can also be composed with others through its {@link #future()}.
+     * <p/>
+     * A query can be stopped with {@link #cancel()}, which stops its notifications and releases
+     * its request.
      *
      * @param <T> type of elements to process on success
      */
     public abstract static class Query<T> implements Runnable {
 
-        private Consumer<T> successConsumer;
-        private Consumer<Throwable> errorConsumer;
+        private final QueryFuture<T> future;
+        private Object key;
+        private volatile Consumer<T> successConsumer;
+        private volatile Consumer<Throwable> errorConsumer;
+        private volatile Runnable completeAction;
+        private volatile FetchLimiter fetchLimiter;
+        private volatile T latestData;
+        private volatile Throwable error;
+        private volatile boolean cancelled;
+        private volatile Runnable cancelAction;
+        private final AtomicBoolean completed = new AtomicBoolean();
 
-        private Query() {}
+        private Query(@NonNull Executor deliveryExecutor) {
+            future = new QueryFuture<>(deliveryExecutor);
+        }
 
         /**
          * Sets the success {@link Consumer<T>}.
@@ -305,12 +962,84 @@ public final class Repository<T, C> {
             return this;
         }
 
+        /**
+         * Returns the {@link QueryFuture} of the query, completed once the query completes with
+         * the last data notified, or with the error. The query still needs to be {@link #run()}.
+         * <p/>
+         * Cancelling the future doesn't stop the query.
+         *
+         * @return the future of the query, the same one on every call
+         */
+        @NonNull
+        public QueryFuture<T> future() {
+            return future;
+        }
+
+        /**
+         * Cancels the query. Nothing else is notified to its consumers and its request is
+         * released: unsubscribed from the {@link ICallCollapser}, which cancels the call if no
+         * other query is waiting for it. Its {@link #future()} is cancelled as well.
+         * <p/>
+         * Keyed queries that joined another one in progress only stop being notified, unless they
+         * are the last one waiting for it.
+         */
+        public void cancel() {
+            cancelled = true;
+            Runnable action = cancelAction;
+            if (action != null) action.run();
+
+            if (!completed.compareAndSet(false, true)) return;
+            Runnable complete = completeAction;
+            if (complete != null) complete.run();
+            future.cancel(false);
+        }
+
+        /**
+         * @return whether {@link #cancel()} was called
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void setCancelAction(@NonNull Runnable cancelAction) {
+            this.cancelAction = cancelAction;
+            // It may have been cancelled before the action was set
+            if (cancelled) cancelAction.run();
+        }
+
+        void setCompleteAction(@Nullable Runnable completeAction) {
+            this.completeAction = completeAction;
+        }
+
+        void setFetchLimiter(@Nullable FetchLimiter fetchLimiter) {
+            this.fetchLimiter = fetchLimiter;
+        }
+
         void doOnSuccess(T data) {
-            if (successConsumer != null) successConsumer.accept(data);
+            if (cancelled) return;
+            latestData = data;
+            Consumer<T> consumer = successConsumer;
+            if (consumer != null) consumer.accept(data);
         }
 
         void doOnError(Throwable throwable) {
-            if (errorConsumer != null) errorConsumer.accept(throwable);
+            if (cancelled) return;
+            error = throwable;
+            Consumer<Throwable> consumer = errorConsumer;
+            if (consumer != null) consumer.accept(throwable);
+        }
+
+        void doOnComplete() {
+            if (!completed.compareAndSet(false, true)) return;
+            Runnable action = completeAction;
+            if (action != null) action.run();
+
+            Throwable throwable = error;
+            if (throwable == null) {
+                future.complete(latestData);
+            } else {
+                future.completeExceptionally(throwable);
+            }
         }
     }
 }
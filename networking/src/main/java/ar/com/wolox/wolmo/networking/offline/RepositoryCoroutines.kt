@@ -0,0 +1,83 @@
+package ar.com.wolox.wolmo.networking.offline
+
+import ar.com.wolox.wolmo.networking.optimizations.ICallCollapser
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.suspendCancellableCoroutine
+import retrofit2.Call
+import java.util.concurrent.CancellationException
+import java.util.concurrent.Executor
+import kotlin.coroutines.EmptyCoroutineContext
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Creates a [Repository] whose cache reads and writes run on [ioDispatcher].
+ * Results are delivered right away on the thread that produced them, since suspended callers
+ * resume on their own dispatcher anyway.
+ */
+fun <T, C : Any> coroutineRepository(
+    cache: C,
+    callCollapser: ICallCollapser,
+    ioDispatcher: CoroutineDispatcher,
+    @Repository.AccessPolicy defaultAccessPolicy: Int = Repository.DEFAULT_ACCESS_POLICY
+): Repository<T, C> = Repository(cache, callCollapser, defaultAccessPolicy,
+        ioDispatcher.asRepositoryExecutor(), Executor { it.run() })
+
+/**
+ * Runs the query and suspends until it completes, returning its last data or throwing its error.
+ * A [Repository.CACHE_STALE_WHILE_REVALIDATE] query returns the revalidated data.
+ * If the coroutine is cancelled the query is cancelled too, releasing its request, and if the
+ * query is cancelled the coroutine is cancelled too.
+ *
+ * @see Repository.Query.cancel
+ */
+suspend fun <T> Repository.Query<T>.await(): T = suspendCancellableCoroutine { continuation ->
+    future()
+            .onSuccess { continuation.resume(it) }
+            .onError {
+                // The query can be cancelled from outside the coroutine as well
+                if (it is CancellationException) {
+                    continuation.cancel(it)
+                } else {
+                    continuation.resumeWithException(it)
+                }
+            }
+    continuation.invokeOnCancellation { cancel() }
+    run()
+}
+
+/**
+ * Suspending version of [Repository.query].
+ */
+suspend fun <T, C> Repository<T, C>.awaitQuery(
+    @Repository.AccessPolicy policy: Int,
+    call: Call<T>,
+    queryStrategy: Repository.QueryStrategy<T, C>
+): T = query(policy, call, queryStrategy).await()
+
+/**
+ * Suspending version of [Repository.query], with the default access policy of the repository.
+ */
+suspend fun <T, C> Repository<T, C>.awaitQuery(
+    call: Call<T>,
+    queryStrategy: Repository.QueryStrategy<T, C>
+): T = query(call, queryStrategy).await()
+
+/**
+ * Suspending version of the keyed [Repository.query]. Cancelling a coroutine that joined a
+ * query in progress stops the shared query only if no other query is waiting for it.
+ */
+suspend fun <T, C> Repository<T, C>.awaitQuery(
+    key: Any,
+    @Repository.AccessPolicy policy: Int,
+    call: Call<T>,
+    queryStrategy: Repository.QueryStrategy<T, C>
+): T = query(key, policy, call, queryStrategy).await()
+
+private fun CoroutineDispatcher.asRepositoryExecutor() = Executor { command ->
+    if (isDispatchNeeded(EmptyCoroutineContext)) {
+        dispatch(EmptyCoroutineContext, command)
+    } else {
+        command.run()
+    }
+}
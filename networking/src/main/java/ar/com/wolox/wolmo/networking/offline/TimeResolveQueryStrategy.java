@@ -21,10 +21,12 @@
  */
 package ar.com.wolox.wolmo.networking.offline;
 
+import androidx.annotation.FloatRange;
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,6 +35,11 @@ import java.util.concurrent.TimeUnit;
  * </p>
  * For example, if it was initialized with 2000, then 2 seconds have to elapse before the data
  * is considered 'dirty'.
+ * <p>
+ * To avoid many clients refreshing at the same moment, the refresh delta time can be shortened by
+ * a random jitter on each refresh with {@link #setRefreshJitter(double)}. Data can also be
+ * considered 'dirty' a little before its expiry with {@link #setEarlyRefreshBeta(double)}: the
+ * longer the last refresh took and the closer the expiry is, the more likely an early refresh.
  */
 public abstract class TimeResolveQueryStrategy<T, C> implements Repository.QueryStrategy<T, C> {
 
@@ -42,8 +49,30 @@ public abstract class TimeResolveQueryStrategy<T, C> implements Repository.Query
      */
     public static long DEFAULT_REFRESH_DELTA_TIME = TimeUnit.HOURS.toMillis(1);
 
-    private long mLastRefreshMoment = System.currentTimeMillis();
+    /**
+     * Default refresh jitter, disabled. Users can modify it to set the default refresh jitter for
+     * future created instances of {@link TimeResolveQueryStrategy}.
+     *
+     * @see #setRefreshJitter(double)
+     */
+    public static double DEFAULT_REFRESH_JITTER = 0;
+
+    /**
+     * Default early refresh beta, disabled. Users can modify it to set the default early refresh
+     * beta for future created instances of {@link TimeResolveQueryStrategy}.
+     *
+     * @see #setEarlyRefreshBeta(double)
+     */
+    public static double DEFAULT_EARLY_REFRESH_BETA = 0;
+
     private final long mRefreshDeltaInMillis;
+    private final Random mRandom = new Random();
+    // Reads and refreshes run on the I/O threads, so the moments are guarded by the instance
+    private long mRefreshDeadline;
+    private long mFetchMoment;
+    private long mFetchDurationInNanos;
+    private volatile double mRefreshJitter = DEFAULT_REFRESH_JITTER;
+    private volatile double mEarlyRefreshBeta = DEFAULT_EARLY_REFRESH_BETA;
 
     /**
      * Creates an instance of the class with a refresh delta time.
@@ -52,6 +81,7 @@ public abstract class TimeResolveQueryStrategy<T, C> implements Repository.Query
      */
     public TimeResolveQueryStrategy(@IntRange(from = 1) long refreshDeltaInMillis) {
         mRefreshDeltaInMillis = refreshDeltaInMillis;
+        mRefreshDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(refreshDeltaInMillis);
     }
 
     /**
@@ -61,15 +91,46 @@ public abstract class TimeResolveQueryStrategy<T, C> implements Repository.Query
         this(DEFAULT_REFRESH_DELTA_TIME);
     }
 
+    /**
+     * Sets the fraction of the refresh delta time that can be randomly cut from it on each refresh.
+     * For example, with a delta of an hour and a jitter of 0.1 the data expires between 54 and 60
+     * minutes after being refreshed, so the delta is never exceeded.
+     *
+     * @param refreshJitter between 0, to disable it, and 1
+     */
+    public void setRefreshJitter(@FloatRange(from = 0, to = 1) double refreshJitter) {
+        mRefreshJitter = refreshJitter;
+    }
+
+    /**
+     * Sets how eagerly data is refreshed before its expiry. On each read, data is considered
+     * 'dirty' when <code>-duration * beta * ln(random)</code> reaches the time left until its
+     * expiry, where <code>duration</code> is how long the last fetch from the remote source took.
+     * A beta of 1 is usually enough, greater values favor earlier refreshes.
+     *
+     * @param earlyRefreshBeta greater than 0, or 0 to disable early refreshes
+     */
+    public void setEarlyRefreshBeta(@FloatRange(from = 0) double earlyRefreshBeta) {
+        mEarlyRefreshBeta = earlyRefreshBeta;
+    }
+
     @Nullable
     @Override
     public final T readLocalSource(@NonNull C cache) {
+        T data = null;
         if (shouldInvalidateCache()) {
             invalidate(cache);
-            return null;
+        } else {
+            data = cleanReadLocalSource(cache);
         }
 
-        return cleanReadLocalSource(cache);
+        if (data == null) {
+            // The remote source is going to be fetched, measure how long it takes
+            synchronized (this) {
+                mFetchMoment = System.nanoTime();
+            }
+        }
+        return data;
     }
 
     /**
@@ -92,6 +153,12 @@ public abstract class TimeResolveQueryStrategy<T, C> implements Repository.Query
 
     @Override
     public final void consumeRemoteSource(@NonNull T data, @NonNull C cache) {
+        synchronized (this) {
+            if (mFetchMoment != 0) {
+                mFetchDurationInNanos = System.nanoTime() - mFetchMoment;
+                mFetchMoment = 0;
+            }
+        }
         updateRefreshMoment();
         refresh(data, cache);
     }
@@ -106,16 +173,58 @@ public abstract class TimeResolveQueryStrategy<T, C> implements Repository.Query
     public abstract void refresh(@NonNull T data, @NonNull C cache);
 
     /**
-     * Sets {@link #mLastRefreshMoment} to the current moment in time.
+     * @return the refresh delta time to use for the next refresh, shortened by the jitter
+     */
+    protected final long nextRefreshDeltaInMillis() {
+        long jitter = (long) (mRefreshDeltaInMillis * mRefreshJitter * random());
+        return Math.max(1, mRefreshDeltaInMillis - jitter);
+    }
+
+    /**
+     * Moves the expiry of the data {@link #nextRefreshDeltaInMillis()} from now. Subclasses can
+     * override it, along with {@link #getRemainingFreshnessInNanos()}, to keep track of freshness
+     * elsewhere, as long as the overrides are thread safe.
      */
-    private void updateRefreshMoment() {
-        mLastRefreshMoment = System.currentTimeMillis();
+    protected synchronized void updateRefreshMoment() {
+        mRefreshDeadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(nextRefreshDeltaInMillis());
     }
 
     /**
-     * @return whether cached data should be invalidated regarding the last time it was refreshed.
+     * The moments are taken from a monotonic clock, so changes to the device's clock don't affect
+     * the result.
+     *
+     * @return the time left until the data expires, or a non positive number if it already did
+     */
+    protected synchronized long getRemainingFreshnessInNanos() {
+        return mRefreshDeadline - System.nanoTime();
+    }
+
+    /**
+     * @return a random number in the range [0, 1)
+     */
+    double random() {
+        return mRandom.nextDouble();
+    }
+
+    /**
+     * @return whether cached data should be invalidated regarding its expiry, or refreshed early.
      */
     private boolean shouldInvalidateCache() {
-        return (System.currentTimeMillis() - mLastRefreshMoment) >= mRefreshDeltaInMillis;
+        long remaining = getRemainingFreshnessInNanos();
+        if (remaining <= 0) {
+            return true;
+        }
+        long fetchDuration;
+        synchronized (this) {
+            fetchDuration = mFetchDurationInNanos;
+        }
+        double earlyRefreshBeta = mEarlyRefreshBeta;
+        if (earlyRefreshBeta <= 0 || fetchDuration <= 0) {
+            return false;
+        }
+
+        double gap = -fetchDuration * earlyRefreshBeta * Math.log(1 - random());
+        return gap >= remaining;
     }
 }
@@ -0,0 +1,186 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Repository.QueryStrategy} that composes a strategy for a fast cache, usually a
+ * {@link MemoryCache}, with one for a slower cache, usually a {@link DiskCache}. The cache of
+ * the {@link Repository} must be a {@link Tiers} with both of them.
+ * <p>
+ * Reads check the first tier and then the second one. Hits of the second tier are promoted to
+ * the first one, see {@link #promote(Object, Object)}. Data fetched from the network is written
+ * to both tiers, either on the calling thread or, when an {@link Executor} is given, to the
+ * second tier in the background.
+ * <p>
+ * Example:
+ * <pre>
+ * Repository&lt;User, Tiers&lt;IKeyedCache&lt;String, User&gt;, IKeyedCache&lt;String, User&gt;&gt;&gt;
+ *         repository = new Repository&lt;&gt;(new Tiers&lt;&gt;(memoryCache, diskCache), collapser);
+ * repository.query(service.getUser(id), new TwoTierQueryStrategy&lt;&gt;(
+ *         new KeyedTimeResolveQueryStrategy&lt;&gt;(id), new KeyedTimeResolveQueryStrategy&lt;&gt;(id)));
+ * </pre>
+ *
+ * @param <T> type of the cached data
+ * @param <C1> type of the first tier cache
+ * @param <C2> type of the second tier cache
+ */
+public class TwoTierQueryStrategy<T, C1, C2>
+        implements Repository.QueryStrategy<T, TwoTierQueryStrategy.Tiers<C1, C2>> {
+
+    private final Repository.QueryStrategy<T, C1> mFirstTierStrategy;
+    private final Repository.QueryStrategy<T, C2> mSecondTierStrategy;
+    @Nullable private final Executor mSecondTierWriter;
+
+    private final AtomicLong mFirstTierHitCount = new AtomicLong();
+    private final AtomicLong mSecondTierHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * Creates a strategy that writes both tiers on the calling thread.
+     *
+     * @param firstTierStrategy to read and write the first tier with
+     * @param secondTierStrategy to read and write the second tier with
+     */
+    public TwoTierQueryStrategy(@NonNull Repository.QueryStrategy<T, C1> firstTierStrategy,
+                                @NonNull Repository.QueryStrategy<T, C2> secondTierStrategy) {
+        this(firstTierStrategy, secondTierStrategy, null);
+    }
+
+    /**
+     * Creates a strategy that writes the second tier with the given {@link Executor}.
+     *
+     * @param firstTierStrategy to read and write the first tier with
+     * @param secondTierStrategy to read and write the second tier with
+     * @param secondTierWriter to write the second tier with, <code>null</code> to write it on
+     * the calling thread
+     */
+    public TwoTierQueryStrategy(@NonNull Repository.QueryStrategy<T, C1> firstTierStrategy,
+                                @NonNull Repository.QueryStrategy<T, C2> secondTierStrategy,
+                                @Nullable Executor secondTierWriter) {
+        mFirstTierStrategy = firstTierStrategy;
+        mSecondTierStrategy = secondTierStrategy;
+        mSecondTierWriter = secondTierWriter;
+    }
+
+    @Nullable
+    @Override
+    public T readLocalSource(@NonNull Tiers<C1, C2> cache) {
+        T data = mFirstTierStrategy.readLocalSource(cache.mFirstTier);
+        if (data != null) {
+            mFirstTierHitCount.incrementAndGet();
+            return data;
+        }
+
+        data = mSecondTierStrategy.readLocalSource(cache.mSecondTier);
+        if (data != null) {
+            mSecondTierHitCount.incrementAndGet();
+            promote(data, cache.mFirstTier);
+            return data;
+        }
+
+        mMissCount.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public void consumeRemoteSource(@NonNull final T data, @NonNull final Tiers<C1, C2> cache) {
+        mFirstTierStrategy.consumeRemoteSource(data, cache.mFirstTier);
+
+        if (mSecondTierWriter == null) {
+            mSecondTierStrategy.consumeRemoteSource(data, cache.mSecondTier);
+            return;
+        }
+        mSecondTierWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                mSecondTierStrategy.consumeRemoteSource(data, cache.mSecondTier);
+            }
+        });
+    }
+
+    /**
+     * Copies data found in the second tier to the first one. By default it's consumed by the
+     * first tier strategy as if it came from the network, override it when that would extend
+     * its freshness more than desired.
+     *
+     * @param data found in the second tier
+     * @param firstTier to copy the data to
+     */
+    protected void promote(@NonNull T data, @NonNull C1 firstTier) {
+        mFirstTierStrategy.consumeRemoteSource(data, firstTier);
+    }
+
+    /**
+     * @return amount of reads served by the first tier
+     */
+    public long getFirstTierHitCount() {
+        return mFirstTierHitCount.get();
+    }
+
+    /**
+     * @return amount of reads served by the second tier
+     */
+    public long getSecondTierHitCount() {
+        return mSecondTierHitCount.get();
+    }
+
+    /**
+     * @return amount of reads that missed both tiers
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * The caches of a {@link TwoTierQueryStrategy}, to be used as the cache of a
+     * {@link Repository}.
+     *
+     * @param <C1> type of the first tier cache
+     * @param <C2> type of the second tier cache
+     */
+    public static final class Tiers<C1, C2> {
+
+        private final C1 mFirstTier;
+        private final C2 mSecondTier;
+
+        public Tiers(@NonNull C1 firstTier, @NonNull C2 secondTier) {
+            mFirstTier = firstTier;
+            mSecondTier = secondTier;
+        }
+
+        @NonNull
+        public C1 getFirstTier() {
+            return mFirstTier;
+        }
+
+        @NonNull
+        public C2 getSecondTier() {
+            return mSecondTier;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Keeps the validators, this is the ETag and Last-Modified headers, of the latest successful
+ * response of each URL, so requests for data that is already cached can be made conditional.
+ * <p>
+ * A request is made conditional only when it's armed, usually by
+ * {@link IRevalidatingQueryStrategy#onRevalidate(Request)}, since a "304 Not Modified" response
+ * is useless without the cached data. Arming applies to the given request only, other requests
+ * for the same URL aren't affected, and it's forgotten once the request is sent or dropped.
+ * <p>
+ * It's meant to be used together with
+ * {@link ar.com.wolox.wolmo.networking.retrofit.interceptor.ConditionalRequestInterceptor}.
+ */
+public class ValidatorStore {
+
+    /**
+     * Default amount of URLs to keep validators for.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final Map<String, Validators> mValidators;
+    // Requests don't override equals, so they are kept by identity until they are collected
+    private final Set<Request> mArmedRequests =
+            Collections.newSetFromMap(new WeakHashMap<Request, Boolean>());
+
+    public ValidatorStore() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries amount of URLs to keep validators for, the least recently used are
+     * dropped first
+     */
+    public ValidatorStore(@IntRange(from = 1) final int maxEntries) {
+        mValidators = new LinkedHashMap<String, Validators>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Validators> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Makes the given request conditional when it's sent, if there are validators for its URL.
+     * It must be the same instance the interceptor receives, as the one of a Retrofit call.
+     *
+     * @param request to arm
+     */
+    public synchronized void arm(@NonNull Request request) {
+        if (mValidators.containsKey(request.url().toString())) mArmedRequests.add(request);
+    }
+
+    /**
+     * @param request to check
+     *
+     * @return whether the given request will be conditional when it's sent
+     */
+    public synchronized boolean isArmed(@NonNull Request request) {
+        return mArmedRequests.contains(request)
+                && mValidators.containsKey(request.url().toString());
+    }
+
+    /**
+     * Adds the conditional headers to the request if it's armed, disarming it.
+     *
+     * @param request to be sent
+     *
+     * @return the conditional request, or the same one if it's not armed or has no validators
+     */
+    @NonNull
+    public Request prepare(@NonNull Request request) {
+        Validators validators;
+        synchronized (this) {
+            if (!mArmedRequests.remove(request)) return request;
+            validators = mValidators.get(request.url().toString());
+        }
+        if (validators == null) return request;
+
+        Request.Builder builder = request.newBuilder();
+        if (validators.mETag != null && request.header(HEADER_IF_NONE_MATCH) == null) {
+            builder.header(HEADER_IF_NONE_MATCH, validators.mETag);
+        }
+        if (validators.mLastModified != null
+                && request.header(HEADER_IF_MODIFIED_SINCE) == null) {
+            builder.header(HEADER_IF_MODIFIED_SINCE, validators.mLastModified);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Keeps the validators of a successful response, replacing the previous ones of its URL.
+     * "304 Not Modified" responses keep the previous ones.
+     *
+     * @param response received
+     */
+    public synchronized void update(@NonNull Response response) {
+        if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) return;
+
+        String url = response.request().url().toString();
+        String eTag = response.header(HEADER_ETAG);
+        String lastModified = response.header(HEADER_LAST_MODIFIED);
+        if (!response.isSuccessful() || (eTag == null && lastModified == null)) {
+            mValidators.remove(url);
+        } else {
+            mValidators.put(url, new Validators(eTag, lastModified));
+        }
+    }
+
+    private static final class Validators {
+
+        @Nullable private final String mETag;
+        @Nullable private final String mLastModified;
+
+        private Validators(@Nullable String eTag, @Nullable String lastModified) {
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+    }
+}
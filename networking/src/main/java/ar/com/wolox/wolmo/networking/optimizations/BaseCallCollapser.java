@@ -21,125 +21,898 @@
  */
 package ar.com.wolox.wolmo.networking.optimizations;
 
+import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
-import java.util.LinkedList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import ar.com.wolox.wolmo.networking.exception.CollapsedCallTimeoutException;
+
+import okhttp3.Request;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.Callback;
+import retrofit2.Invocation;
 import retrofit2.Response;
 
 /**
  * Thread-safe implementation of {@link ICallCollapser}.
  * Collapses GET requests into one by calling the first and reporting the result to every callback.
+ * Calls to service methods annotated with {@link Idempotent} are collapsed as well.
+ * <p>
+ * Requests are matched by their {@link RequestFingerprint}, so the order of the query parameters
+ * doesn't prevent two requests from being collapsed.
+ * <p>
+ * Optionally, successful responses can be replayed for a short window after they complete, so
+ * requests that arrive right after the shared one finished don't go to the network again. See
+ * {@link Builder#replayWindow(long, TimeUnit)}.
+ * <p>
+ * Blocking callers, see {@link #execute(Call)}, are collapsed together with each other and with
+ * the enqueued ones. A request started by a blocking caller completes on its thread, so enqueued
+ * callers never join it, they are sent on their own and notified by Retrofit as usual.
+ * <p>
+ * Every subscriber of an unsuccessful response gets its own copy of the error body, so all of
+ * them can read it.
+ * <p>
+ * The amount of requests in flight is bounded, once the limit is reached new requests are sent
+ * without collapsing. See {@link Builder#maxInFlight(int)}. Optionally, requests that take longer
+ * than a flight timeout are evicted and cancelled, and their callbacks notified with a
+ * {@link CollapsedCallTimeoutException}. See {@link Builder#flightTimeout(long, TimeUnit)}.
+ * <p>
+ * Calls can be sent through a {@link CallScheduler}, see {@link Builder#scheduler(CallScheduler)}.
+ * When a caller collapses onto a request that is still waiting in the scheduler with a lower
+ * priority, the request is promoted to the priority of the caller.
+ * <p>
+ * Collapsing decisions can be observed with an {@link ICallCollapserListener}, see
+ * {@link Builder#listener(ICallCollapserListener)}.
  */
-public class BaseCallCollapser implements ICallCollapser {
+public class BaseCallCollapser implements ICallCollapser, Closeable {
 
     public static final String HTTP_METHOD_GET = "GET";
 
-    private final ConcurrentHashMap<String, Queue<Callback>> mGetCallbackQueues;
+    private static final int SUBSCRIBED = 0;
+    private static final int ORIGINATED = 1;
+    private static final int REJECTED = 2;
+
+    private static ScheduledExecutorService sTimeoutExecutor;
+
+    private final ConcurrentHashMap<String, Flight> mInFlightCalls;
+    private final String[] mVaryHeaders;
+    private final ResponseMemo mResponseMemo;
+    @Nullable private final ICallCollapserListener mListener;
+    private final int mMaxInFlight;
+    private final long mFlightTimeoutNanos;
+    private final AtomicLong mEvictedCount = new AtomicLong();
+    @Nullable private final CallScheduler mScheduler;
+    private volatile boolean mClosed;
 
     public BaseCallCollapser() {
-        mGetCallbackQueues = new ConcurrentHashMap<>();
+        this(new Builder());
     }
 
     /**
-     * Enqueues the call immediately if it's not a GET. This is done because only GET (read only)
-     * operations can be collapsed, writing operations should't be altered.
+     * Creates a collapser that considers the given headers when matching requests. Requests
+     * with different values for any of them are never collapsed.
+     *
+     * @param varyHeaders names of the headers that make two requests different
+     */
+    public BaseCallCollapser(@NonNull String... varyHeaders) {
+        this(new Builder().varyHeaders(varyHeaders));
+    }
+
+    private BaseCallCollapser(@NonNull Builder builder) {
+        mInFlightCalls = new ConcurrentHashMap<>();
+        mVaryHeaders = builder.mVaryHeaders;
+        mResponseMemo = new ResponseMemo(builder.mReplayWindowNanos, builder.mReplayMaxEntries,
+                builder.mReplayMaxBytes);
+        mListener = builder.mListener;
+        mMaxInFlight = builder.mMaxInFlight;
+        mFlightTimeoutNanos = builder.mFlightTimeoutNanos;
+        mScheduler = builder.mScheduler;
+    }
+
+    /**
+     * The flight timeouts of every collapser share a single daemon thread, created the first
+     * time one is needed.
+     */
+    private static synchronized ScheduledExecutorService getTimeoutExecutor() {
+        if (sTimeoutExecutor == null) {
+            sTimeoutExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BaseCallCollapser timeouts");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sTimeoutExecutor;
+    }
+
+    /**
+     * Enqueues the call immediately if it's not a GET nor {@link Idempotent}. This is done
+     * because only read only operations can be collapsed, writing operations should't be altered.
      * <p>
-     * Collapsing the call means adding it to the queue of the same
-     * request, and executing it if it's the first to be added to said queue.
+     * Collapsing the call means subscribing it to the in flight request with the same
+     * {@link RequestFingerprint}, and executing it if it's the first to subscribe. If a response
+     * for the same request is still inside the replay window, the callback is notified
+     * immediately on the calling thread instead.
      *
      * @param call to be enqueued
      * @param callback to be called when executing it
      */
+    @Override
     public final <T> void enqueue(@NonNull Call<T> call, @NonNull Callback<T> callback) {
-        if (!isGetCall(call)) {
-            call.enqueue(callback);
-            return;
-        }
-
-        Queue<Callback> requestQueue = getQueueFromRequest(call);
+        subscribe(call, callback, CallScheduler.PRIORITY_NORMAL);
+    }
 
-        requestQueue.add(callback);
-        if (requestQueue.size() > 1) return;
-        collapsingEnqueue(call);
+    /**
+     * Collapses the call like {@link #enqueue(Call, Callback)}. Unsubscribing cancels the call
+     * once every callback collapsed into it left.
+     *
+     * @param call to be enqueued
+     * @param callback to be called when executing it
+     *
+     * @return an {@link ICallSubscription} to stop listening to the call
+     */
+    @NonNull
+    @Override
+    public final <T> ICallSubscription subscribe(@NonNull Call<T> call,
+                                                 @NonNull Callback<T> callback) {
+        return subscribe(call, callback, CallScheduler.PRIORITY_NORMAL);
     }
 
-    private boolean isGetCall(Call call) {
-        return HTTP_METHOD_GET.equalsIgnoreCase(call.request().method());
+    /**
+     * Collapses the call like {@link #subscribe(Call, Callback)}. If a {@link CallScheduler} was
+     * set, the call is scheduled with the given priority, and a request in flight that is still
+     * waiting is promoted to it.
+     *
+     * @param call to be enqueued
+     * @param callback to be called when executing it
+     * @param priority of the call
+     *
+     * @return an {@link ICallSubscription} to stop listening to the call
+     */
+    @NonNull
+    @Override
+    public final <T> ICallSubscription subscribe(@NonNull Call<T> call,
+                                                 @NonNull Callback<T> callback,
+                                                 @CallScheduler.Priority int priority) {
+        final Subscription<T> subscription = new Subscription<>(call, callback);
+        switch (join(call, subscription, priority, false)) {
+            case ORIGINATED:
+                collapsingEnqueue(call, subscription.mFlight, priority);
+                break;
+            case REJECTED:
+                subscription.mScheduledCall = dispatch(call, subscription, priority, null);
+                // It may have been unsubscribed before the call was scheduled
+                if (subscription.isUnsubscribed()) subscription.cancelCall();
+                break;
+        }
+        return subscription;
     }
 
     /**
-     * Retrieves the request URL of the {@link Call} and returns a queue for it. If it doesn't exist
-     * yet, it creates it and adds it to {@link #mGetCallbackQueues}.
+     * Executes the call immediately if it's not a GET nor {@link Idempotent}, otherwise it's
+     * collapsed the same way {@link #enqueue(Call, Callback)} does.
+     * <p>
+     * If it's the first to subscribe, the call is executed on the calling thread and its result
+     * is shared with the blocking callers that join it. Otherwise the calling thread waits for
+     * the result of the request in flight, either blocking or enqueued. Blocking calls are never scheduled, they
+     * run on the calling thread and count as {@link CallScheduler#PRIORITY_NORMAL} when
+     * promoting.
      *
-     * @param call for the queue retrieval
+     * @param call to be executed
      *
-     * @return a {@link Queue} associated to the given {@link Call} url.
+     * @return the response of the call
+     *
+     * @throws IOException if the call fails or the calling thread is interrupted while waiting
      */
     @NonNull
-    private Queue<Callback> getQueueFromRequest(Call call) {
-        String url = call.request().url().toString();
+    @Override
+    public final <T> Response<T> execute(@NonNull Call<T> call) throws IOException {
+        BlockingCallback<T> callback = new BlockingCallback<>();
+        Subscription<T> subscription = new Subscription<>(call, callback);
+        switch (join(call, subscription, CallScheduler.PRIORITY_NORMAL, true)) {
+            case ORIGINATED:
+                collapsingExecute(call, subscription.mFlight);
+                break;
+            case REJECTED:
+                return call.execute();
+        }
+        return callback.await(subscription);
+    }
 
-        // Synchronization is needed here since it's safe per call but having multiple calls
-        // makes it vulnerable.
-        synchronized (mGetCallbackQueues) {
-            if (mGetCallbackQueues.containsKey(url)) return mGetCallbackQueues.get(url);
+    /**
+     * Subscribes to the in flight request with the same {@link RequestFingerprint}, creating it
+     * if there is none. If a response for the same request is still inside the replay window,
+     * the subscription is notified immediately on the calling thread instead.
+     * <p>
+     * Joining a flight promotes it to the priority of the subscription. Enqueued subscriptions
+     * never join a flight started by a blocking caller, since it would notify them on the
+     * blocking thread instead of Retrofit's callback executor.
+     *
+     * @return {@link #SUBSCRIBED} if the subscription was collapsed or notified,
+     * {@link #ORIGINATED} if its call must be sent for its {@link Flight}, or {@link #REJECTED}
+     * if it must be sent without collapsing
+     */
+    private <T> int join(@NonNull Call<T> call, @NonNull Subscription<T> subscription,
+                         @CallScheduler.Priority int priority, boolean blocking) {
+        if (mClosed || !isCollapsible(call)) return REJECTED;
+
+        final String key;
+        try {
+            key = RequestFingerprint.of(call.request(), mVaryHeaders);
+        } catch (IOException | IllegalArgumentException e) {
+            // The body can't be hashed without consuming it, so it's sent as is
+            return REJECTED;
         }
 
-        LinkedList<Callback> requestQueue = new LinkedList<>();
-        mGetCallbackQueues.put(url, requestQueue);
-        return requestQueue;
+        while (true) {
+            if (mResponseMemo.isEnabled()) {
+                Response<?> memoizedResponse = mResponseMemo.get(key);
+                if (memoizedResponse != null) {
+                    if (mListener != null) mListener.onCallCollapsed(call.request());
+                    subscription.notifyResponse(memoizedResponse);
+                    return SUBSCRIBED;
+                }
+            }
+
+            Flight flight = mInFlightCalls.get(key);
+            boolean isOwner = false;
+
+            if (flight == null) {
+                // The registry is full, so this one is sent without collapsing
+                if (mInFlightCalls.size() >= mMaxInFlight) return REJECTED;
+
+                Flight newFlight = new Flight(key, call, priority, blocking);
+                flight = mInFlightCalls.putIfAbsent(key, newFlight);
+                if (flight == null) {
+                    flight = newFlight;
+                    isOwner = true;
+                }
+            }
+
+            // Its result is delivered on the blocking thread, so this one is sent on its own
+            if (!isOwner && flight.mBlocking && !blocking) return REJECTED;
+
+            if (flight.subscribe(subscription)) {
+                if (isOwner) {
+                    if (mListener != null) mListener.onCallOriginated(call.request());
+                    return ORIGINATED;
+                }
+                flight.promote(priority);
+                if (mListener != null) mListener.onCallCollapsed(call.request());
+                return SUBSCRIBED;
+            }
+
+            // The flight completed while subscribing, make sure it's gone and try again
+            mInFlightCalls.remove(key, flight);
+        }
     }
 
     /**
-     * Calls {@link Call#enqueue(Callback)} with a {@link Callback<T>} that reports the result to
-     * the request queue.
+     * @return amount of requests currently in flight, this is, being shared by their subscribers
+     */
+    public int getInFlightCount() {
+        return mInFlightCalls.size();
+    }
+
+    /**
+     * @return amount of requests evicted because they exceeded the flight timeout
+     */
+    public long getEvictedCount() {
+        return mEvictedCount.get();
+    }
+
+    /**
+     * Stops collapsing calls, later ones are sent on their own. Calls already in flight complete
+     * normally, but their flight timeouts are cancelled so the collapser is no longer referenced
+     * from the timeout thread.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        for (Flight flight : mInFlightCalls.values()) {
+            flight.cancelTimeout();
+        }
+    }
+
+    private boolean isCollapsible(Call<?> call) {
+        Request request = call.request();
+        if (HTTP_METHOD_GET.equalsIgnoreCase(request.method())) return true;
+
+        Invocation invocation = request.tag(Invocation.class);
+        return invocation != null && invocation.method().isAnnotationPresent(Idempotent.class);
+    }
+
+    /**
+     * Enqueues the call, through the {@link CallScheduler} if there is one.
+     *
+     * @param onStart to run right before the call is actually enqueued
+     */
+    @Nullable
+    private <T> CallScheduler.ScheduledCall<T> dispatch(@NonNull Call<T> call,
+                                                        @NonNull Callback<T> callback,
+                                                        @CallScheduler.Priority int priority,
+                                                        @Nullable Runnable onStart) {
+        if (mScheduler == null) {
+            if (onStart != null) onStart.run();
+            call.enqueue(callback);
+            return null;
+        }
+        return mScheduler.schedule(call, callback, priority, onStart);
+    }
+
+    /**
+     * Enqueues the call with a {@link Callback<T>} that reports the result to every subscriber
+     * of the {@link Flight}.
      *
      * @param call to execute
+     * @param flight to report to
+     * @param priority to schedule the call with
      */
-    private <T> void collapsingEnqueue(@NonNull Call<T> call) {
-        call.enqueue(new Callback<T>() {
+    private <T> void collapsingEnqueue(@NonNull Call<T> call, @NonNull final Flight flight,
+                                       @CallScheduler.Priority int priority) {
+        flight.mScheduledCall = dispatch(call, new Callback<T>() {
             @Override
             public void onResponse(Call<T> call, Response<T> response) {
-                applySuccessToQueue(call, response);
+                flight.onCallResponse(response);
             }
 
             @Override
             public void onFailure(Call<T> call, Throwable t) {
-                applyFailureToQueue(call, t);
+                flight.onCallFailure(t);
+            }
+        }, priority, new Runnable() {
+            @Override
+            public void run() {
+                // The flight times out once it's sent, waiting for a free slot doesn't count
+                flight.scheduleTimeout();
             }
         });
+
+        // Every subscriber may have left before the call was scheduled, it must not stay queued
+        if (flight.mSubscriberCount.get() == Flight.CLOSED && !flight.mCompleted.get()) {
+            flight.cancelCall();
+            return;
+        }
+        // Callers may have joined with a higher priority before the call was scheduled
+        flight.promote(flight.mPriority.get());
+    }
+
+    /**
+     * Calls {@link Call#execute()} on the calling thread and reports the result to every
+     * subscriber of the {@link Flight}.
+     *
+     * @param call to execute
+     * @param flight to report to
+     */
+    private <T> void collapsingExecute(@NonNull Call<T> call, @NonNull Flight flight) {
+        flight.scheduleTimeout();
+        Response<T> response;
+        try {
+            response = call.execute();
+        } catch (IOException | RuntimeException e) {
+            flight.onCallFailure(e);
+            return;
+        }
+        flight.onCallResponse(response);
+    }
+
+    /**
+     * A request in progress and the {@link Subscription}s waiting for its result.
+     * <p>
+     * Subscribing, unsubscribing and completing never block. The subscriber count is used as the
+     * gate: once the flight completes, or its last subscriber leaves, it's set to {@link #CLOSED}
+     * and no other subscription is accepted, so late subscribers start a new flight instead of
+     * missing the result.
+     */
+    private final class Flight {
+
+        private static final int CLOSED = -1;
+
+        private final String mKey;
+        private final Call<?> mCall;
+        private final long mStartedAtNanos = System.nanoTime();
+        private final Queue<Subscription<?>> mSubscriptions = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger mSubscriberCount = new AtomicInteger();
+        private final AtomicBoolean mCompleted = new AtomicBoolean();
+        private final AtomicInteger mPriority;
+        private final boolean mBlocking;
+        private volatile CallScheduler.ScheduledCall<?> mScheduledCall;
+        private volatile FlightTimeout mTimeout;
+        private volatile boolean mTimedOut;
+
+        private Flight(@NonNull String key, @NonNull Call<?> call,
+                       @CallScheduler.Priority int priority, boolean blocking) {
+            mKey = key;
+            mCall = call;
+            mPriority = new AtomicInteger(priority);
+            mBlocking = blocking;
+        }
+
+        /**
+         * @return <code>true</code> if the subscription will be notified by this flight, or
+         * <code>false</code> if it closed before the subscription could be accepted
+         */
+        private boolean subscribe(@NonNull Subscription<?> subscription) {
+            subscription.mFlight = this;
+            mSubscriptions.add(subscription);
+
+            while (true) {
+                int count = mSubscriberCount.get();
+                if (count == CLOSED) {
+                    // If it's no longer queued the flight took it while completing
+                    if (!mSubscriptions.remove(subscription)) return true;
+                    subscription.mFlight = null;
+                    return false;
+                }
+                if (mSubscriberCount.compareAndSet(count, count + 1)) return true;
+            }
+        }
+
+        /**
+         * Raises the priority of the call if it's still waiting in the {@link CallScheduler}.
+         */
+        private void promote(@CallScheduler.Priority int priority) {
+            while (true) {
+                int current = mPriority.get();
+                if (priority >= current || mPriority.compareAndSet(current, priority)) break;
+            }
+
+            CallScheduler.ScheduledCall<?> scheduledCall = mScheduledCall;
+            if (scheduledCall != null) scheduledCall.promote(mPriority.get());
+        }
+
+        /**
+         * Removes a subscription that was never notified. When the last one leaves, the flight
+         * is closed and its call cancelled.
+         */
+        private void unsubscribe(@NonNull Subscription<?> subscription) {
+            mSubscriptions.remove(subscription);
+
+            while (true) {
+                int count = mSubscriberCount.get();
+                if (count == CLOSED) return;
+                if (mSubscriberCount.compareAndSet(count, count - 1)) {
+                    // Somebody may subscribe right after reaching 0, so closing must be atomic
+                    if (count == 1 && mSubscriberCount.compareAndSet(0, CLOSED)) {
+                        cancelTimeout();
+                        mInFlightCalls.remove(mKey, this);
+                        cancelCall();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void onCallResponse(@NonNull Response<?> response) {
+            if (!markCompleted()) return;
+
+            // Memoize first so late callers find either the flight or the response
+            if (mResponseMemo.isEnabled()) mResponseMemo.put(mKey, response);
+            mInFlightCalls.remove(mKey, this);
+            completeWithResponse(response);
+        }
+
+        private void onCallFailure(@NonNull Throwable t) {
+            if (!markCompleted()) return;
+
+            mInFlightCalls.remove(mKey, this);
+            completeWithFailure(mTimedOut ? new CollapsedCallTimeoutException(mCall,
+                    TimeUnit.NANOSECONDS.toMillis(mFlightTimeoutNanos)) : t);
+        }
+
+        /**
+         * @return <code>true</code> only for the first caller, which must complete the flight
+         */
+        private boolean markCompleted() {
+            if (!mCompleted.compareAndSet(false, true)) return false;
+            cancelTimeout();
+            return true;
+        }
+
+        /**
+         * Schedules the eviction of the flight, if the collapser has a flight timeout.
+         */
+        private void scheduleTimeout() {
+            if (mFlightTimeoutNanos <= 0 || mClosed) return;
+
+            FlightTimeout timeout = new FlightTimeout(this);
+            mTimeout = timeout;
+            timeout.mFuture = getTimeoutExecutor()
+                    .schedule(timeout, mFlightTimeoutNanos, TimeUnit.NANOSECONDS);
+
+            // The flight may have completed while scheduling
+            if (mCompleted.get()) cancelTimeout();
+        }
+
+        private void cancelTimeout() {
+            FlightTimeout timeout = mTimeout;
+            if (timeout != null) timeout.cancel();
+        }
+
+        /**
+         * Evicts the flight and cancels its call. The failure of the cancelled call is reported
+         * to the subscribers as a {@link CollapsedCallTimeoutException}, so they are notified
+         * on the same thread Retrofit delivers every other result.
+         */
+        private void onTimeout() {
+            if (mCompleted.get()) return;
+
+            mTimedOut = true;
+            mInFlightCalls.remove(mKey, this);
+            mEvictedCount.incrementAndGet();
+            cancelCall();
+        }
+
+        /**
+         * Cancels the call, removing it from the {@link CallScheduler} queue if it's still
+         * waiting there.
+         */
+        private void cancelCall() {
+            CallScheduler.ScheduledCall<?> scheduledCall = mScheduledCall;
+            if (scheduledCall != null) {
+                scheduledCall.cancel();
+            } else {
+                mCall.cancel();
+            }
+        }
+
+        /**
+         * Error bodies can be read only once, so they are read here and every subscriber gets
+         * its own view of the content.
+         */
+        private void completeWithResponse(@NonNull Response<?> response) {
+            SharedResponseBody sharedErrorBody = null;
+            ResponseBody errorBody = response.errorBody();
+            if (errorBody != null) {
+                try {
+                    sharedErrorBody = SharedResponseBody.read(errorBody);
+                } catch (IOException e) {
+                    completeWithFailure(e);
+                    return;
+                }
+            }
+
+            mSubscriberCount.set(CLOSED);
+
+            int notified = 0;
+            Subscription<?> subscription;
+            while ((subscription = mSubscriptions.poll()) != null) {
+                Response<?> subscriberResponse = sharedErrorBody == null ? response
+                        : Response.error(sharedErrorBody.newView(), response.raw());
+                if (subscription.notifyResponse(subscriberResponse)) notified++;
+            }
+            reportCompletion(notified);
+        }
+
+        private void completeWithFailure(@NonNull Throwable t) {
+            mSubscriberCount.set(CLOSED);
+
+            int notified = 0;
+            Subscription<?> subscription;
+            while ((subscription = mSubscriptions.poll()) != null) {
+                if (subscription.notifyFailure(t)) notified++;
+            }
+            reportCompletion(notified);
+        }
+
+        private void reportCompletion(int notified) {
+            if (mListener == null) return;
+            mListener.onFlightCompleted(mCall.request(), notified,
+                    System.nanoTime() - mStartedAtNanos);
+        }
     }
 
-    @SuppressWarnings("unchecked")
-    private <T> void applySuccessToQueue(@NonNull Call<T> call, @NonNull Response<T> response) {
-        Queue<Callback> requestQueue = getQueueFromRequest(call);
+    /**
+     * Timeout of a {@link Flight}. Cancelled timeouts are kept by the executor until they are due,
+     * so the reference to the flight is dropped as soon as it's cancelled.
+     */
+    private static final class FlightTimeout implements Runnable {
 
-        Callback currentCallback;
-        while ((currentCallback = requestQueue.poll()) != null) {
-            currentCallback.onResponse(call, response);
+        private volatile Flight mFlight;
+        private volatile ScheduledFuture<?> mFuture;
+
+        private FlightTimeout(@NonNull Flight flight) {
+            mFlight = flight;
         }
 
-        removeQueueFromRequest(call);
+        @Override
+        public void run() {
+            Flight flight = mFlight;
+            mFlight = null;
+            if (flight == null) return;
+
+            try {
+                flight.onTimeout();
+            } catch (RuntimeException e) {
+                // The thread is shared by every collapser, a failing call must not stop it
+            }
+        }
+
+        private void cancel() {
+            mFlight = null;
+            ScheduledFuture<?> future = mFuture;
+            if (future != null) future.cancel(false);
+        }
     }
 
-    @SuppressWarnings("unchecked")
-    private <T> void applyFailureToQueue(@NonNull Call<T> call, @NonNull Throwable t) {
-        Queue<Callback> requestQueue = getQueueFromRequest(call);
+    /**
+     * A caller interested in the result of a {@link Call}, either collapsed in a {@link Flight} or
+     * enqueued on its own. It's notified at most once and never after unsubscribing.
+     */
+    private final class Subscription<T> implements ICallSubscription, Callback<T> {
+
+        private final Call<T> mCall;
+        private final Callback<T> mCallback;
+        private final long mSubscribedAtNanos = System.nanoTime();
+        private final AtomicBoolean mClaimed = new AtomicBoolean();
+        private volatile boolean mUnsubscribed;
+        private volatile Flight mFlight;
+        private volatile CallScheduler.ScheduledCall<?> mScheduledCall;
 
-        Callback currentCallback;
-        while ((currentCallback = requestQueue.poll()) != null) {
-            currentCallback.onFailure(call, t);
+        private Subscription(@NonNull Call<T> call, @NonNull Callback<T> callback) {
+            mCall = call;
+            mCallback = callback;
         }
 
-        removeQueueFromRequest(call);
+        @Override
+        public void unsubscribe() {
+            if (!claim()) return;
+            mUnsubscribed = true;
+
+            Flight flight = mFlight;
+            if (flight == null) {
+                cancelCall();
+            } else {
+                flight.unsubscribe(this);
+            }
+        }
+
+        /**
+         * Cancels a call that wasn't collapsed, removing it from the {@link CallScheduler} queue
+         * if it's still waiting there.
+         */
+        private void cancelCall() {
+            CallScheduler.ScheduledCall<?> scheduledCall = mScheduledCall;
+            if (scheduledCall != null) {
+                scheduledCall.cancel();
+            } else {
+                mCall.cancel();
+            }
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return mUnsubscribed;
+        }
+
+        @Override
+        public void onResponse(@NonNull Call<T> call, @NonNull Response<T> response) {
+            notifyResponse(response);
+        }
+
+        @Override
+        public void onFailure(@NonNull Call<T> call, @NonNull Throwable t) {
+            notifyFailure(t);
+        }
+
+        /**
+         * @return <code>true</code> only for the first caller, which becomes responsible for it
+         */
+        private boolean claim() {
+            return mClaimed.compareAndSet(false, true);
+        }
+
+        /**
+         * @return whether the callback was notified
+         */
+        @SuppressWarnings("unchecked")
+        private boolean notifyResponse(@NonNull Response<?> response) {
+            if (!claim()) return false;
+            reportNotification();
+            // Collapsed calls make the same request, so they expect the same type of response
+            mCallback.onResponse(mCall, (Response<T>) response);
+            return true;
+        }
+
+        /**
+         * @return whether the callback was notified
+         */
+        private boolean notifyFailure(@NonNull Throwable t) {
+            if (!claim()) return false;
+            reportNotification();
+            mCallback.onFailure(mCall, t);
+            return true;
+        }
+
+        private void reportNotification() {
+            if (mListener == null) return;
+            mListener.onSubscriberNotified(mCall.request(),
+                    System.nanoTime() - mSubscribedAtNanos);
+        }
     }
 
-    private void removeQueueFromRequest(Call call) {
-        mGetCallbackQueues.remove(call.request().url().toString());
+    /**
+     * {@link Callback} that lets a blocking caller wait for the result of its {@link Subscription}.
+     */
+    private static final class BlockingCallback<T> implements Callback<T> {
+
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private Response<T> mResponse;
+        private Throwable mFailure;
+
+        @Override
+        public void onResponse(@NonNull Call<T> call, @NonNull Response<T> response) {
+            mResponse = response;
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onFailure(@NonNull Call<T> call, @NonNull Throwable t) {
+            mFailure = t;
+            mLatch.countDown();
+        }
+
+        /**
+         * Waits for the result, unsubscribing if the calling thread is interrupted.
+         */
+        @NonNull
+        private Response<T> await(@NonNull ICallSubscription subscription) throws IOException {
+            try {
+                mLatch.await();
+            } catch (InterruptedException e) {
+                subscription.unsubscribe();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a collapsed call");
+            }
+
+            if (mFailure == null) return mResponse;
+            if (mFailure instanceof IOException) throw (IOException) mFailure;
+            if (mFailure instanceof RuntimeException) throw (RuntimeException) mFailure;
+            if (mFailure instanceof Error) throw (Error) mFailure;
+            throw new IOException(mFailure);
+        }
+    }
+
+    /**
+     * Builder for {@link BaseCallCollapser} instances that need more than the default
+     * configuration.
+     */
+    public static final class Builder {
+
+        private static final int DEFAULT_REPLAY_MAX_ENTRIES = 32;
+        private static final long DEFAULT_REPLAY_MAX_BYTES = 1024 * 1024;
+        private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+        private String[] mVaryHeaders = new String[0];
+        private long mReplayWindowNanos;
+        private int mReplayMaxEntries = DEFAULT_REPLAY_MAX_ENTRIES;
+        private long mReplayMaxBytes = DEFAULT_REPLAY_MAX_BYTES;
+        private ICallCollapserListener mListener;
+        private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        private long mFlightTimeoutNanos;
+        private CallScheduler mScheduler;
+
+        /**
+         * Sets the headers considered when matching requests. Requests with different values for
+         * any of them are never collapsed.
+         *
+         * @param varyHeaders names of the headers that make two requests different
+         *
+         * @return the same instance
+         */
+        public Builder varyHeaders(@NonNull String... varyHeaders) {
+            mVaryHeaders = varyHeaders.clone();
+            return this;
+        }
+
+        /**
+         * Sets for how long a successful response is replayed to requests that arrive after it
+         * completed. Values between a few hundred milliseconds and a few seconds cover screens
+         * that request the same resource from several places at once. Disabled by default.
+         *
+         * @param window to replay responses for, 0 disables replaying
+         * @param timeUnit to convert window
+         *
+         * @return the same instance
+         */
+        public Builder replayWindow(@IntRange(from = 0) long window, @NonNull TimeUnit timeUnit) {
+            mReplayWindowNanos = timeUnit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * Bounds the responses kept for replaying. Defaults to 32 entries and 1 MiB.
+         *
+         * @param maxEntries amount of responses to keep
+         * @param maxBytes sum of the body sizes of the responses to keep
+         *
+         * @return the same instance
+         */
+        public Builder replayLimits(@IntRange(from = 1) int maxEntries,
+                                    @IntRange(from = 0) long maxBytes) {
+            mReplayMaxEntries = maxEntries;
+            mReplayMaxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Sets the listener notified of every collapsing decision.
+         *
+         * @param listener to notify, <code>null</code> to disable it
+         *
+         * @return the same instance
+         *
+         * @see CallCollapserStats
+         */
+        public Builder listener(@Nullable ICallCollapserListener listener) {
+            mListener = listener;
+            return this;
+        }
+
+        /**
+         * Bounds the amount of requests in flight. Once reached, new requests are sent without
+         * collapsing until some of the in flight ones complete. Defaults to 256.
+         *
+         * @param maxInFlight amount of requests that can be in flight
+         *
+         * @return the same instance
+         */
+        public Builder maxInFlight(@IntRange(from = 1) int maxInFlight) {
+            mMaxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Sets the time after which a request in flight is evicted and its call cancelled. Its
+         * callbacks are notified with a {@link CollapsedCallTimeoutException} once the cancelled
+         * call fails, on the same thread Retrofit delivers every other result. It should be longer
+         * than the slowest call expected, since even legitimate calls are cancelled. Disabled by
+         * default.
+         *
+         * @param timeout for requests in flight, 0 disables evicting them
+         * @param timeUnit to convert timeout
+         *
+         * @return the same instance
+         */
+        public Builder flightTimeout(@IntRange(from = 0) long timeout, @NonNull TimeUnit timeUnit) {
+            mFlightTimeoutNanos = timeUnit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Sets the scheduler every enqueued call is sent through. By default calls are enqueued
+         * directly.
+         *
+         * @param scheduler to send calls through, <code>null</code> to enqueue them directly
+         *
+         * @return the same instance
+         */
+        public Builder scheduler(@Nullable CallScheduler scheduler) {
+            mScheduler = scheduler;
+            return this;
+        }
+
+        public BaseCallCollapser build() {
+            return new BaseCallCollapser(this);
+        }
     }
 }
@@ -0,0 +1,471 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Request;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * {@link ICallCollapser} that merges requests for single resources into bulk requests, following
+ * the registered {@link IBatchStrategy}s.
+ * <p>
+ * Requests that match a strategy are buffered for a short tick, or until the batch is full, and
+ * then sent as a single bulk request. Its result is split back to every callback as if the
+ * original call was made. Resources missing from the bulk response, and every resource of a
+ * failed bulk request, are requested on their own so partial failures don't reach the callbacks.
+ * <p>
+ * Requests that don't match any strategy, the bulk requests and the fallback requests go through
+ * a delegate {@link ICallCollapser}, so they are still collapsed.
+ * <p>
+ * Batches are sent from a single background thread owned by the collapser. Call {@link #close()}
+ * once it's no longer needed to release it, buffered requests are sent right away and later ones
+ * go straight to the delegate.
+ */
+public class BatchingCallCollapser implements ICallCollapser, Closeable {
+
+    /**
+     * Default time to buffer requests before sending a batch, in milliseconds.
+     */
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    /**
+     * Default maximum amount of requests merged in a single batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 50;
+
+    private final ICallCollapser mDelegate;
+    private final long mTickMillis;
+    private final int mMaxBatchSize;
+    private final List<Batcher<?>> mBatchers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService mExecutor;
+    private volatile boolean mClosed;
+
+    /**
+     * Creates a collapser that buffers batchable requests for a tick, or until there are enough
+     * to fill a batch.
+     *
+     * @param delegate to enqueue every request that isn't batched through
+     * @param tick to buffer requests for
+     * @param timeUnit to convert tick
+     * @param maxBatchSize maximum amount of requests merged in a single batch
+     */
+    public BatchingCallCollapser(@NonNull ICallCollapser delegate, @IntRange(from = 0) long tick,
+                                 @NonNull TimeUnit timeUnit,
+                                 @IntRange(from = 1) int maxBatchSize) {
+        mDelegate = delegate;
+        mTickMillis = timeUnit.toMillis(tick);
+        mMaxBatchSize = maxBatchSize;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "BatchingCallCollapser");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Creates a collapser with {@link #DEFAULT_TICK_MILLIS} and {@link #DEFAULT_MAX_BATCH_SIZE}.
+     *
+     * @param delegate to enqueue every request that isn't batched through
+     */
+    public BatchingCallCollapser(@NonNull ICallCollapser delegate) {
+        this(delegate, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Registers a strategy to batch requests with. Strategies are checked in registration order.
+     *
+     * @param strategy to register
+     *
+     * @return the same instance
+     */
+    public <B> BatchingCallCollapser register(@NonNull IBatchStrategy<B> strategy) {
+        mBatchers.add(new Batcher<>(strategy));
+        return this;
+    }
+
+    @Override
+    public <T> void enqueue(@NonNull Call<T> call, @NonNull Callback<T> callback) {
+        subscribe(call, callback, CallScheduler.PRIORITY_NORMAL);
+    }
+
+    @NonNull
+    @Override
+    public <T> ICallSubscription subscribe(@NonNull Call<T> call, @NonNull Callback<T> callback) {
+        return subscribe(call, callback, CallScheduler.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Batches the call if it matches a strategy. The bulk request is enqueued with the highest
+     * priority among the calls it merges, and fallback requests with the priority of their own
+     * call.
+     *
+     * @param call to be made to the API
+     * @param callback to be called after executing it
+     * @param priority of the call
+     *
+     * @return an {@link ICallSubscription} to stop listening to the call
+     */
+    @NonNull
+    @Override
+    public <T> ICallSubscription subscribe(@NonNull Call<T> call, @NonNull Callback<T> callback,
+                                           @CallScheduler.Priority int priority) {
+        if (mClosed) return mDelegate.subscribe(call, callback, priority);
+
+        Request request = call.request();
+        for (Batcher<?> batcher : mBatchers) {
+            String id = batcher.mStrategy.extractId(request);
+            if (id != null) return batcher.add(id, call, callback, priority);
+        }
+        return mDelegate.subscribe(call, callback, priority);
+    }
+
+    /**
+     * Blocking callers can't wait for a batch to fill, so the call is executed by the delegate.
+     *
+     * @param call to be made to the API
+     *
+     * @return the response of the call
+     *
+     * @throws IOException if the call fails or the calling thread is interrupted while waiting
+     */
+    @NonNull
+    @Override
+    public <T> Response<T> execute(@NonNull Call<T> call) throws IOException {
+        return mDelegate.execute(call);
+    }
+
+    /**
+     * Stops the background thread of the collapser. Buffered requests are sent right away, and
+     * requests enqueued afterwards go to the delegate without batching.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        mExecutor.shutdownNow();
+        for (Batcher<?> batcher : mBatchers) {
+            batcher.flush();
+        }
+    }
+
+    /**
+     * Buffers the requests of a single {@link IBatchStrategy} and sends them.
+     */
+    private final class Batcher<B> {
+
+        private final IBatchStrategy<B> mStrategy;
+        private List<Entry<?>> mPending = new ArrayList<>();
+        private boolean mFlushScheduled;
+
+        private Batcher(@NonNull IBatchStrategy<B> strategy) {
+            mStrategy = strategy;
+        }
+
+        @NonNull
+        private <T> Entry<T> add(@NonNull String id, @NonNull Call<T> call,
+                                 @NonNull Callback<T> callback,
+                                 @CallScheduler.Priority int priority) {
+            Entry<T> entry = new Entry<>(this, id, call, callback, priority);
+            List<Entry<?>> fullBatch = null;
+
+            synchronized (this) {
+                final List<Entry<?>> batch = mPending;
+                batch.add(entry);
+                if (batch.size() >= mMaxBatchSize || !scheduleFlush(batch)) {
+                    fullBatch = takePending();
+                }
+            }
+
+            if (fullBatch != null) send(fullBatch);
+            return entry;
+        }
+
+        /**
+         * @return whether the entry was still buffered
+         */
+        private synchronized boolean remove(@NonNull Entry<?> entry) {
+            return mPending.remove(entry);
+        }
+
+        /**
+         * Must be called holding the lock. Schedules sending the batch after a tick, once per
+         * batch.
+         *
+         * @return <code>false</code> if the collapser was closed, so the batch must be sent now
+         */
+        private boolean scheduleFlush(@NonNull final List<Entry<?>> batch) {
+            if (mFlushScheduled) return true;
+            try {
+                mExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(batch);
+                    }
+                }, mTickMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+            mFlushScheduled = true;
+            return true;
+        }
+
+        /**
+         * Sends the batch if it's still the buffered one, it may have been sent when it filled.
+         */
+        private void flush(@NonNull List<Entry<?>> batch) {
+            List<Entry<?>> entries;
+            synchronized (this) {
+                if (mPending != batch) return;
+                entries = takePending();
+            }
+            send(entries);
+        }
+
+        /**
+         * Sends whatever is buffered.
+         */
+        private void flush() {
+            List<Entry<?>> entries;
+            synchronized (this) {
+                entries = takePending();
+            }
+            send(entries);
+        }
+
+        /**
+         * Must be called holding the lock. The {@link Batch} is assigned to the entries here so
+         * that an entry is always either buffered or in a batch.
+         */
+        @NonNull
+        private List<Entry<?>> takePending() {
+            List<Entry<?>> entries = mPending;
+            mPending = new ArrayList<>();
+            mFlushScheduled = false;
+
+            if (entries.size() > 1) {
+                Batch batch = new Batch(entries.size());
+                for (Entry<?> entry : entries) {
+                    entry.mBatch = batch;
+                }
+            }
+            return entries;
+        }
+
+        private void send(@NonNull final List<Entry<?>> entries) {
+            if (entries.isEmpty()) return;
+            if (entries.size() == 1) {
+                // A batch of one isn't worth it, the original call is made instead
+                entries.get(0).fallBack();
+                return;
+            }
+
+            LinkedHashSet<String> ids = new LinkedHashSet<>();
+            int priority = CallScheduler.PRIORITY_PREFETCH;
+            for (Entry<?> entry : entries) {
+                ids.add(entry.mId);
+                priority = Math.min(priority, entry.mPriority);
+            }
+
+            final Batch batch = entries.get(0).mBatch;
+            Call<B> batchCall;
+            try {
+                batchCall = mStrategy.createBatchCall(new ArrayList<>(ids));
+            } catch (RuntimeException e) {
+                fallBack(entries);
+                return;
+            }
+
+            try {
+                batch.mSubscription = mDelegate.subscribe(batchCall, new Callback<B>() {
+                    @Override
+                    public void onResponse(Call<B> call, Response<B> response) {
+                        B body = response.body();
+                        if (!response.isSuccessful() || body == null) {
+                            fallBack(entries);
+                            return;
+                        }
+
+                        for (Entry<?> entry : entries) {
+                            try {
+                                Object item = mStrategy.extractItem(body, entry.mId);
+                                if (item == null) {
+                                    entry.fallBack();
+                                } else {
+                                    entry.notifyResponse(Response.success(item, response.raw()));
+                                }
+                            } catch (RuntimeException e) {
+                                // A failing entry must not keep the rest from being notified
+                                entry.notifyFailure(e);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Call<B> call, Throwable t) {
+                        fallBack(entries);
+                    }
+                }, priority);
+            } catch (RuntimeException e) {
+                fallBack(entries);
+                return;
+            }
+
+            // Everybody may have left while the bulk call was being enqueued
+            if (batch.isAbandoned()) batch.mSubscription.unsubscribe();
+        }
+
+        private void fallBack(@NonNull List<Entry<?>> entries) {
+            for (Entry<?> entry : entries) {
+                entry.fallBack();
+            }
+        }
+    }
+
+    /**
+     * Bulk request shared by several {@link Entry}s. It's cancelled when all of them leave.
+     */
+    private static final class Batch {
+
+        private final AtomicInteger mRemaining;
+        private volatile ICallSubscription mSubscription;
+
+        private Batch(int entries) {
+            mRemaining = new AtomicInteger(entries);
+        }
+
+        private void release() {
+            if (mRemaining.decrementAndGet() > 0) return;
+
+            ICallSubscription subscription = mSubscription;
+            if (subscription != null) subscription.unsubscribe();
+        }
+
+        private boolean isAbandoned() {
+            return mRemaining.get() <= 0;
+        }
+    }
+
+    /**
+     * A request for a single resource. It's notified at most once, either with its part of the
+     * bulk response or through its own fallback call, and never after unsubscribing.
+     */
+    private final class Entry<T> implements ICallSubscription, Callback<T> {
+
+        private final Batcher<?> mBatcher;
+        private final String mId;
+        private final Call<T> mCall;
+        private final Callback<T> mCallback;
+        private final int mPriority;
+        private final AtomicBoolean mClaimed = new AtomicBoolean();
+        private volatile boolean mUnsubscribed;
+        private volatile Batch mBatch;
+        private volatile ICallSubscription mFallbackSubscription;
+
+        private Entry(@NonNull Batcher<?> batcher, @NonNull String id, @NonNull Call<T> call,
+                      @NonNull Callback<T> callback, @CallScheduler.Priority int priority) {
+            mBatcher = batcher;
+            mId = id;
+            mCall = call;
+            mCallback = callback;
+            mPriority = priority;
+        }
+
+        @Override
+        public void unsubscribe() {
+            ICallSubscription fallbackSubscription;
+            synchronized (this) {
+                if (!mClaimed.compareAndSet(false, true)) return;
+                mUnsubscribed = true;
+                fallbackSubscription = mFallbackSubscription;
+            }
+
+            if (fallbackSubscription != null) {
+                fallbackSubscription.unsubscribe();
+            } else if (!mBatcher.remove(this) && mBatch != null) {
+                mBatch.release();
+            }
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return mUnsubscribed;
+        }
+
+        @Override
+        public void onResponse(@NonNull Call<T> call, @NonNull Response<T> response) {
+            notifyResponse(response);
+        }
+
+        @Override
+        public void onFailure(@NonNull Call<T> call, @NonNull Throwable t) {
+            notifyFailure(t);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void notifyResponse(@NonNull Response<?> response) {
+            // The strategy extracts items of the type the original call expects
+            if (mClaimed.compareAndSet(false, true)) {
+                mCallback.onResponse(mCall, (Response<T>) response);
+            }
+        }
+
+        private void notifyFailure(@NonNull Throwable t) {
+            if (mClaimed.compareAndSet(false, true)) mCallback.onFailure(mCall, t);
+        }
+
+        /**
+         * Makes the original call on its own, notifying this entry with its result. The check
+         * and the call are made holding the lock, so an entry that unsubscribed never sends it.
+         */
+        private void fallBack() {
+            try {
+                synchronized (this) {
+                    if (mClaimed.get()) return;
+                    mFallbackSubscription = mDelegate.subscribe(mCall, this, mPriority);
+                }
+            } catch (RuntimeException e) {
+                notifyFailure(e);
+            }
+        }
+    }
+}
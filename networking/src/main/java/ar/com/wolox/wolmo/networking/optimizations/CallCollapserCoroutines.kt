@@ -0,0 +1,28 @@
+package ar.com.wolox.wolmo.networking.optimizations
+
+import kotlinx.coroutines.suspendCancellableCoroutine
+import retrofit2.Call
+import retrofit2.Callback
+import retrofit2.Response
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Enqueues the call in the collapser and suspends until its [Response] is available, throwing
+ * if it fails. If the coroutine is cancelled the callback is unsubscribed, which cancels the
+ * call once no other caller is waiting for it.
+ *
+ * @see ICallSubscription.unsubscribe
+ */
+suspend fun <T> ICallCollapser.await(
+    call: Call<T>,
+    @CallScheduler.Priority priority: Int = CallScheduler.PRIORITY_NORMAL
+): Response<T> = suspendCancellableCoroutine { continuation ->
+    val subscription = subscribe(call, object : Callback<T> {
+        override fun onResponse(call: Call<T>, response: Response<T>) =
+                continuation.resume(response)
+
+        override fun onFailure(call: Call<T>, t: Throwable) = continuation.resumeWithException(t)
+    }, priority)
+    continuation.invokeOnCancellation { subscription.unsubscribe() }
+}
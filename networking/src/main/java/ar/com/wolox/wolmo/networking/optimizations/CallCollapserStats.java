@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import okhttp3.Request;
+import retrofit2.Invocation;
+
+/**
+ * {@link ICallCollapserListener} that aggregates the collapsing results so they can be read at
+ * any time, for example to report them periodically.
+ * <p>
+ * Counters are split by the Retrofit service method that created each request, which acts as
+ * its key pattern. Requests not created by Retrofit are only counted globally. Once every service
+ * method has been seen, recording doesn't allocate, so it can stay enabled in release builds.
+ */
+public class CallCollapserStats implements ICallCollapserListener {
+
+    /**
+     * Amount of buckets of the fan out histogram. Bucket <code>i</code> counts the flights that
+     * notified up to <code>2^i</code> subscribers and more than <code>2^(i-1)</code>, the last
+     * one counts every bigger flight.
+     */
+    public static final int FAN_OUT_BUCKETS = 8;
+
+    private final AtomicLong mOriginatedCount = new AtomicLong();
+    private final AtomicLong mCollapsedCount = new AtomicLong();
+    private final AtomicLong mNotifiedCount = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+    private final AtomicLong mInFlightCount = new AtomicLong();
+    private final AtomicLongArray mFanOutHistogram = new AtomicLongArray(FAN_OUT_BUCKETS);
+    private final ConcurrentHashMap<Method, PatternCounters> mPatternCounters =
+            new ConcurrentHashMap<>();
+
+    @Override
+    public void onCallOriginated(@NonNull Request request) {
+        mOriginatedCount.incrementAndGet();
+        mInFlightCount.incrementAndGet();
+        PatternCounters counters = getPatternCounters(request);
+        if (counters != null) counters.mOriginated.incrementAndGet();
+    }
+
+    @Override
+    public void onCallCollapsed(@NonNull Request request) {
+        mCollapsedCount.incrementAndGet();
+        PatternCounters counters = getPatternCounters(request);
+        if (counters != null) counters.mCollapsed.incrementAndGet();
+    }
+
+    @Override
+    public void onFlightCompleted(@NonNull Request request, int subscribers, long durationNanos) {
+        mInFlightCount.decrementAndGet();
+        mFanOutHistogram.incrementAndGet(bucketOf(subscribers));
+    }
+
+    @Override
+    public void onSubscriberNotified(@NonNull Request request, long waitNanos) {
+        mNotifiedCount.incrementAndGet();
+        mTotalWaitNanos.addAndGet(waitNanos);
+
+        long max;
+        do {
+            max = mMaxWaitNanos.get();
+        } while (waitNanos > max && !mMaxWaitNanos.compareAndSet(max, waitNanos));
+    }
+
+    /**
+     * @return amount of requests that went to the network
+     */
+    public long getOriginatedCount() {
+        return mOriginatedCount.get();
+    }
+
+    /**
+     * @return amount of requests that were served by an equivalent one
+     */
+    public long getCollapsedCount() {
+        return mCollapsedCount.get();
+    }
+
+    /**
+     * @param serviceMethod Retrofit service method that creates the requests
+     *
+     * @return amount of requests created by the method that went to the network
+     */
+    public long getOriginatedCount(@NonNull Method serviceMethod) {
+        PatternCounters counters = mPatternCounters.get(serviceMethod);
+        return counters == null ? 0 : counters.mOriginated.get();
+    }
+
+    /**
+     * @param serviceMethod Retrofit service method that creates the requests
+     *
+     * @return amount of requests created by the method that were served by an equivalent one
+     */
+    public long getCollapsedCount(@NonNull Method serviceMethod) {
+        PatternCounters counters = mPatternCounters.get(serviceMethod);
+        return counters == null ? 0 : counters.mCollapsed.get();
+    }
+
+    /**
+     * @return fraction of the requests that didn't go to the network, or 0 if there were none
+     */
+    public double getHitRatio() {
+        long collapsed = mCollapsedCount.get();
+        long total = collapsed + mOriginatedCount.get();
+        return total == 0 ? 0 : (double) collapsed / total;
+    }
+
+    /**
+     * @return a copy of the histogram of subscribers per flight, see {@link #FAN_OUT_BUCKETS}
+     */
+    @NonNull
+    public long[] getFanOutHistogram() {
+        long[] histogram = new long[FAN_OUT_BUCKETS];
+        for (int i = 0; i < FAN_OUT_BUCKETS; i++) {
+            histogram[i] = mFanOutHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return average time callbacks waited for their result, or 0 if none was notified yet
+     */
+    public long getAverageWaitNanos() {
+        long notified = mNotifiedCount.get();
+        return notified == 0 ? 0 : mTotalWaitNanos.get() / notified;
+    }
+
+    /**
+     * @return longest time a callback waited for its result
+     */
+    public long getMaxWaitNanos() {
+        return mMaxWaitNanos.get();
+    }
+
+    /**
+     * @return amount of requests currently in flight
+     */
+    public long getInFlightCount() {
+        return mInFlightCount.get();
+    }
+
+    @Nullable
+    private PatternCounters getPatternCounters(@NonNull Request request) {
+        Invocation invocation = request.tag(Invocation.class);
+        if (invocation == null) return null;
+
+        Method method = invocation.method();
+        PatternCounters counters = mPatternCounters.get(method);
+        if (counters != null) return counters;
+
+        PatternCounters newCounters = new PatternCounters();
+        counters = mPatternCounters.putIfAbsent(method, newCounters);
+        return counters == null ? newCounters : counters;
+    }
+
+    private static int bucketOf(int subscribers) {
+        int bucket = 0;
+        while (bucket < FAN_OUT_BUCKETS - 1 && subscribers > (1 << bucket)) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static final class PatternCounters {
+
+        private final AtomicLong mOriginated = new AtomicLong();
+        private final AtomicLong mCollapsed = new AtomicLong();
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Enqueues calls respecting a maximum amount of calls in flight per host, so a burst of
+ * requests to a host doesn't take every connection of OkHttp's Dispatcher.
+ * <p>
+ * Waiting calls are sent in priority order, and in arrival order within the same priority.
+ * {@link #PRIORITY_PREFETCH} calls never take the last free slot of a host, it's kept for
+ * calls the user is waiting for. A waiting call can be promoted to a higher priority, see
+ * {@link ScheduledCall#promote(int)}.
+ */
+public class CallScheduler {
+
+    /**
+     * Priorities for scheduled calls, lower values are sent first.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({ PRIORITY_USER_BLOCKING, PRIORITY_NORMAL, PRIORITY_PREFETCH })
+    public @interface Priority {}
+
+    /**
+     * For calls the user is actively waiting for, like the content of the current screen.
+     */
+    public static final int PRIORITY_USER_BLOCKING = 0;
+
+    /**
+     * For every other call. This is the default priority.
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * For speculative calls whose result may never be used.
+     */
+    public static final int PRIORITY_PREFETCH = 2;
+
+    /**
+     * Default maximum amount of calls in flight per host.
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+
+    private static final int PRIORITIES = 3;
+
+    private final int mMaxRequestsPerHost;
+    private final int mMaxPrefetchRequestsPerHost;
+    private final Map<String, Host> mHosts = new HashMap<>();
+
+    public CallScheduler() {
+        this(DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * @param maxRequestsPerHost maximum amount of calls in flight per host
+     */
+    public CallScheduler(@IntRange(from = 1) int maxRequestsPerHost) {
+        mMaxRequestsPerHost = maxRequestsPerHost;
+        mMaxPrefetchRequestsPerHost = Math.max(maxRequestsPerHost - 1, 1);
+    }
+
+    /**
+     * Enqueues the call as soon as its host has a free slot for its priority.
+     * <p>
+     * A waiting call must be cancelled through {@link ScheduledCall#cancel()} to leave the
+     * queue. Cancelling the {@link Call} itself only makes it fail right away when its turn comes,
+     * as Retrofit does with every cancelled call.
+     *
+     * @param call to enqueue
+     * @param callback to be called when executing it
+     * @param priority of the call
+     *
+     * @return a {@link ScheduledCall} to promote or cancel the call while it waits
+     */
+    @NonNull
+    public <T> ScheduledCall<T> schedule(@NonNull Call<T> call, @NonNull Callback<T> callback,
+                                         @Priority int priority) {
+        return schedule(call, callback, priority, null);
+    }
+
+    /**
+     * Same as {@link #schedule(Call, Callback, int)}, running <code>onStart</code> right before
+     * the call is enqueued.
+     */
+    @NonNull
+    <T> ScheduledCall<T> schedule(@NonNull Call<T> call, @NonNull Callback<T> callback,
+                                  @Priority int priority, @Nullable Runnable onStart) {
+        ScheduledCall<T> scheduledCall = new ScheduledCall<>(call, callback, priority, onStart);
+        List<ScheduledCall<?>> ready;
+        synchronized (this) {
+            Host host = mHosts.get(scheduledCall.mHostName);
+            if (host == null) {
+                host = new Host(scheduledCall.mHostName);
+                mHosts.put(host.mName, host);
+            }
+            scheduledCall.mHost = host;
+            host.mLanes.get(priority).add(scheduledCall);
+            ready = host.takeReady();
+        }
+        startAll(ready);
+        return scheduledCall;
+    }
+
+    /**
+     * @return amount of calls waiting for a free slot
+     */
+    public synchronized int getWaitingCount() {
+        int waiting = 0;
+        for (Host host : mHosts.values()) {
+            for (ArrayDeque<ScheduledCall<?>> lane : host.mLanes) {
+                waiting += lane.size();
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * @return amount of calls in flight, for every host
+     */
+    public synchronized int getRunningCount() {
+        int running = 0;
+        for (Host host : mHosts.values()) {
+            running += host.mRunning;
+        }
+        return running;
+    }
+
+    private void startAll(@NonNull List<ScheduledCall<?>> ready) {
+        for (ScheduledCall<?> scheduledCall : ready) {
+            scheduledCall.start();
+        }
+    }
+
+    /**
+     * Frees the slot of a finished call and starts the calls that can take it.
+     */
+    private void finish(@NonNull Host host) {
+        List<ScheduledCall<?>> ready;
+        synchronized (this) {
+            host.mRunning--;
+            ready = host.takeReady();
+            if (host.isIdle()) mHosts.remove(host.mName);
+        }
+        startAll(ready);
+    }
+
+    /**
+     * Calls in flight and waiting calls, by priority, of a single host. Guarded by the scheduler.
+     */
+    private final class Host {
+
+        private final String mName;
+        private final List<ArrayDeque<ScheduledCall<?>>> mLanes = new ArrayList<>(PRIORITIES);
+        private int mRunning;
+
+        private Host(@NonNull String name) {
+            mName = name;
+            for (int i = 0; i < PRIORITIES; i++) {
+                mLanes.add(new ArrayDeque<ScheduledCall<?>>());
+            }
+        }
+
+        /**
+         * Takes the waiting calls that fit in the free slots, marking them as running. They must
+         * be started once the lock is released.
+         */
+        @NonNull
+        private List<ScheduledCall<?>> takeReady() {
+            List<ScheduledCall<?>> ready = new ArrayList<>();
+            for (int priority = 0; priority < PRIORITIES; priority++) {
+                ArrayDeque<ScheduledCall<?>> lane = mLanes.get(priority);
+                int limit = priority == PRIORITY_PREFETCH ? mMaxPrefetchRequestsPerHost
+                        : mMaxRequestsPerHost;
+                while (!lane.isEmpty() && mRunning < limit) {
+                    ScheduledCall<?> scheduledCall = lane.poll();
+                    scheduledCall.mWaiting = false;
+                    mRunning++;
+                    ready.add(scheduledCall);
+                }
+                // Lower priorities wait until every higher priority call is sent
+                if (!lane.isEmpty()) break;
+            }
+            return ready;
+        }
+
+        private boolean isIdle() {
+            if (mRunning > 0) return false;
+            for (ArrayDeque<ScheduledCall<?>> lane : mLanes) {
+                if (!lane.isEmpty()) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A call handled by the scheduler, either waiting for a free slot or already enqueued.
+     */
+    public final class ScheduledCall<T> {
+
+        private final Call<T> mCall;
+        private final Callback<T> mCallback;
+        private final String mHostName;
+        private final Runnable mOnStart;
+        private Host mHost;
+        private int mPriority;
+        private boolean mWaiting = true;
+
+        private ScheduledCall(@NonNull Call<T> call, @NonNull Callback<T> callback,
+                              @Priority int priority, @Nullable Runnable onStart) {
+            mCall = call;
+            mCallback = callback;
+            mHostName = call.request().url().host();
+            mPriority = priority;
+            mOnStart = onStart;
+        }
+
+        /**
+         * Raises the priority of the call if it's still waiting. Lower priorities are ignored.
+         *
+         * @param priority to raise the call to
+         */
+        public void promote(@Priority int priority) {
+            List<ScheduledCall<?>> ready;
+            synchronized (CallScheduler.this) {
+                if (!mWaiting || priority >= mPriority) return;
+
+                mHost.mLanes.get(mPriority).remove(this);
+                mPriority = priority;
+                mHost.mLanes.get(priority).add(this);
+                ready = mHost.takeReady();
+            }
+            startAll(ready);
+        }
+
+        /**
+         * Cancels the call. If it's still waiting it's removed from the queue, so it's never
+         * enqueued and its callback is never called.
+         *
+         * @return <code>true</code> if the call was removed from the queue
+         */
+        public boolean cancel() {
+            boolean removed;
+            synchronized (CallScheduler.this) {
+                removed = mWaiting;
+                if (removed) {
+                    mHost.mLanes.get(mPriority).remove(this);
+                    mWaiting = false;
+                    if (mHost.isIdle()) mHosts.remove(mHost.mName);
+                }
+            }
+            mCall.cancel();
+            return removed;
+        }
+
+        /**
+         * @return current priority of the call
+         */
+        @Priority
+        public int getPriority() {
+            synchronized (CallScheduler.this) {
+                return mPriority;
+            }
+        }
+
+        /**
+         * @return whether the call is still waiting for a free slot
+         */
+        public boolean isWaiting() {
+            synchronized (CallScheduler.this) {
+                return mWaiting;
+            }
+        }
+
+        private void start() {
+            if (mOnStart != null) mOnStart.run();
+            mCall.enqueue(new Callback<T>() {
+                @Override
+                public void onResponse(@NonNull Call<T> call, @NonNull Response<T> response) {
+                    finish(mHost);
+                    mCallback.onResponse(call, response);
+                }
+
+                @Override
+                public void onFailure(@NonNull Call<T> call, @NonNull Throwable t) {
+                    finish(mHost);
+                    mCallback.onFailure(call, t);
+                }
+            });
+        }
+    }
+}
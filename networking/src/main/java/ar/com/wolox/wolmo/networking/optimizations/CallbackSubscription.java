@@ -0,0 +1,65 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * {@link ICallSubscription} for collapsers that can't cancel the calls they enqueue. It forwards
+ * the result to the callback at most once, and never after unsubscribing.
+ */
+final class CallbackSubscription<T> implements ICallSubscription, Callback<T> {
+
+    private final Callback<T> mCallback;
+    private final AtomicBoolean mClaimed = new AtomicBoolean();
+    private volatile boolean mUnsubscribed;
+
+    CallbackSubscription(@NonNull Callback<T> callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public void unsubscribe() {
+        if (mClaimed.compareAndSet(false, true)) mUnsubscribed = true;
+    }
+
+    @Override
+    public boolean isUnsubscribed() {
+        return mUnsubscribed;
+    }
+
+    @Override
+    public void onResponse(@NonNull Call<T> call, @NonNull Response<T> response) {
+        if (mClaimed.compareAndSet(false, true)) mCallback.onResponse(call, response);
+    }
+
+    @Override
+    public void onFailure(@NonNull Call<T> call, @NonNull Throwable t) {
+        if (mClaimed.compareAndSet(false, true)) mCallback.onFailure(call, t);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+import okhttp3.Request;
+import retrofit2.Call;
+
+/**
+ * Describes how requests for single resources can be merged into a bulk request, and how to split
+ * its result back. Used by {@link BatchingCallCollapser}.
+ * <p>
+ * Example: several "GET /items/{id}" requests merged into a "GET /items?ids=1,2,3" request which
+ * returns a map from id to item.
+ *
+ * @param <B> type of the bulk response
+ */
+public interface IBatchStrategy<B> {
+
+    /**
+     * Determines whether a request can be batched by this strategy.
+     *
+     * @param request to check
+     *
+     * @return the id of the requested resource, or <code>null</code> if it can't be batched
+     */
+    @Nullable
+    String extractId(@NonNull Request request);
+
+    /**
+     * Creates a bulk {@link Call} that requests every given resource.
+     *
+     * @param ids of the resources, without duplicates
+     *
+     * @return a new, not executed, {@link Call}
+     */
+    @NonNull
+    Call<B> createBatchCall(@NonNull List<String> ids);
+
+    /**
+     * Extracts a single resource from the bulk response. It must be of the same type the original
+     * call of the resource would have returned.
+     *
+     * @param batch response of the bulk call
+     * @param id of the resource
+     *
+     * @return the resource, or <code>null</code> if it's missing and should be requested alone
+     */
+    @Nullable
+    Object extractItem(@NonNull B batch, @NonNull String id);
+}
@@ -23,8 +23,11 @@ package ar.com.wolox.wolmo.networking.optimizations;
 
 import androidx.annotation.NonNull;
 
+import java.io.IOException;
+
 import retrofit2.Call;
 import retrofit2.Callback;
+import retrofit2.Response;
 
 /**
  * A Call Collapser is a mechanism of network optimization that prevents repetitive consecutive
@@ -47,4 +50,57 @@ public interface ICallCollapser {
      * @param callback to be called after executing it
      */
     <T> void enqueue(@NonNull Call<T> call, @NonNull Callback<T> callback);
+
+    /**
+     * Handles the API call like {@link #enqueue(Call, Callback)}, returning a handle to stop
+     * listening to it.
+     * <p>
+     * By default the call is enqueued as is and unsubscribing only stops notifying the callback.
+     * Implementations that know which callbacks share a call should override it to cancel the
+     * call once all of them leave.
+     *
+     * @param call to be made to the API
+     * @param callback to be called after executing it
+     *
+     * @return an {@link ICallSubscription} to stop listening to the call
+     */
+    @NonNull
+    default <T> ICallSubscription subscribe(@NonNull Call<T> call,
+                                            @NonNull Callback<T> callback) {
+        CallbackSubscription<T> subscription = new CallbackSubscription<>(callback);
+        enqueue(call, subscription);
+        return subscription;
+    }
+
+    /**
+     * Handles the API call like {@link #subscribe(Call, Callback)}, with the given priority.
+     * Implementations without a {@link CallScheduler} may ignore it, as the default one does.
+     *
+     * @param call to be made to the API
+     * @param callback to be called after executing it
+     * @param priority of the call
+     *
+     * @return an {@link ICallSubscription} to stop listening to the call
+     */
+    @NonNull
+    default <T> ICallSubscription subscribe(@NonNull Call<T> call, @NonNull Callback<T> callback,
+                                            @CallScheduler.Priority int priority) {
+        return subscribe(call, callback);
+    }
+
+    /**
+     * Executes the API call synchronously, blocking the calling thread until the response is
+     * available. Implementations may collapse concurrent callers of the same request into a
+     * single execution, by default the call is executed as is.
+     *
+     * @param call to be made to the API
+     *
+     * @return the response of the call
+     *
+     * @throws IOException if the call fails or the calling thread is interrupted while waiting
+     */
+    @NonNull
+    default <T> Response<T> execute(@NonNull Call<T> call) throws IOException {
+        return call.execute();
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import androidx.annotation.NonNull;
+
+import okhttp3.Request;
+
+/**
+ * Listener of the collapsing decisions taken by an {@link ICallCollapser}. Useful for measuring
+ * how many requests are saved.
+ * <p>
+ * Methods are called on the thread that enqueues or completes the calls, so implementations must
+ * be thread-safe and fast. Every argument is an existing object or a primitive, so reporting
+ * doesn't allocate. The key pattern of a request can be derived from its
+ * {@link retrofit2.Invocation} tag.
+ *
+ * @see CallCollapserStats
+ */
+public interface ICallCollapserListener {
+
+    /**
+     * Called when a request goes to the network because there was no equivalent one in flight.
+     *
+     * @param request that is sent
+     */
+    void onCallOriginated(@NonNull Request request);
+
+    /**
+     * Called when a request is served by an equivalent one instead of going to the network.
+     *
+     * @param request that is not sent
+     */
+    void onCallCollapsed(@NonNull Request request);
+
+    /**
+     * Called when a request that went to the network finishes, either successfully or not.
+     *
+     * @param request that was sent
+     * @param subscribers amount of callbacks notified with its result
+     * @param durationNanos time since the request was enqueued
+     */
+    void onFlightCompleted(@NonNull Request request, int subscribers, long durationNanos);
+
+    /**
+     * Called when a callback is notified, with the time it waited for the result.
+     *
+     * @param request of the call the callback was enqueued with
+     * @param waitNanos time since the callback was enqueued
+     */
+    void onSubscriberNotified(@NonNull Request request, long waitNanos);
+}
@@ -0,0 +1,42 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+/**
+ * Handle to a callback enqueued in an {@link ICallCollapser}.
+ * <p>
+ * Unsubscribing detaches only that callback. When a call collapses several callbacks, it keeps
+ * running until every one of them unsubscribes, and only then the call is cancelled.
+ */
+public interface ICallSubscription {
+
+    /**
+     * Stops notifying the callback. If the callback was the last one waiting for its call, the
+     * call is cancelled. Does nothing if the callback was already notified.
+     */
+    void unsubscribe();
+
+    /**
+     * @return whether {@link #unsubscribe()} detached the callback before it was notified
+     */
+    boolean isUnsubscribed();
+}
@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.HashingSink;
+import okio.Okio;
+
+/**
+ * Builds canonical keys for {@link Request}s so equivalent requests can be detected regardless of
+ * how they were built.
+ * <p>
+ * A fingerprint is made of the HTTP method, the URL with its query parameters sorted and the
+ * values of the selected <code>Vary</code> headers. This means that
+ * "/users?page=1&amp;sort=name" and "/users?sort=name&amp;page=1" share the same fingerprint.
+ * Requests with a body also include its content type and a SHA-256 hash of its content.
+ */
+public final class RequestFingerprint {
+
+    private static final Comparator<String[]> PARAMETER_COMPARATOR = (first, second) -> {
+        int byName = first[0].compareTo(second[0]);
+        if (byName != 0) return byName;
+        if (first[1] == null) return second[1] == null ? 0 : -1;
+        if (second[1] == null) return 1;
+        return first[1].compareTo(second[1]);
+    };
+
+    private RequestFingerprint() {}
+
+    /**
+     * Computes the fingerprint of a {@link Request}.
+     *
+     * @param request to fingerprint
+     * @param varyHeaders names of the headers whose values make two requests different
+     *
+     * @return a canonical {@link String} representation of the request
+     *
+     * @throws IOException if the request body can't be read
+     * @throws IllegalArgumentException if the request body can be read only once
+     */
+    @NonNull
+    public static String of(@NonNull Request request, @NonNull String... varyHeaders)
+            throws IOException {
+        StringBuilder fingerprint = new StringBuilder(request.method()).append(' ');
+        appendCanonicalUrl(fingerprint, request.url());
+
+        RequestBody body = request.body();
+        if (body != null) appendBodyHash(fingerprint, body);
+
+        for (String header : varyHeaders) {
+            String value = request.header(header);
+            if (value == null) continue;
+            fingerprint.append('\n').append(header.toLowerCase(Locale.US)).append(':')
+                    .append(value);
+        }
+
+        return fingerprint.toString();
+    }
+
+    /**
+     * Appends the {@link HttpUrl} to the builder with its query parameters sorted by name and
+     * then by value. URLs with less than two query parameters are already canonical.
+     */
+    private static void appendCanonicalUrl(@NonNull StringBuilder builder, @NonNull HttpUrl url) {
+        final int querySize = url.querySize();
+        if (querySize < 2) {
+            builder.append(url.toString());
+            return;
+        }
+
+        final String[][] parameters = new String[querySize][];
+        for (int i = 0; i < querySize; i++) {
+            parameters[i] = new String[] { url.queryParameterName(i), url.queryParameterValue(i) };
+        }
+        Arrays.sort(parameters, PARAMETER_COMPARATOR);
+
+        HttpUrl.Builder canonicalUrl = url.newBuilder().query(null);
+        for (String[] parameter : parameters) {
+            canonicalUrl.addQueryParameter(parameter[0], parameter[1]);
+        }
+        builder.append(canonicalUrl.build().toString());
+    }
+
+    /**
+     * Appends the content type and the hash of the body. The body is streamed into the hash, so
+     * it's never fully buffered in memory.
+     */
+    private static void appendBodyHash(@NonNull StringBuilder builder, @NonNull RequestBody body)
+            throws IOException {
+        if (body.isOneShot()) {
+            throw new IllegalArgumentException("One-shot request bodies can't be fingerprinted");
+        }
+
+        HashingSink hashingSink = HashingSink.sha256(Okio.blackhole());
+        BufferedSink sink = Okio.buffer(hashingSink);
+        body.writeTo(sink);
+        sink.close();
+
+        MediaType contentType = body.contentType();
+        builder.append('\n').append(contentType == null ? "" : contentType.toString()).append(':')
+                .append(hashingSink.hash().hex());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+/**
+ * Short-lived memory of successful {@link Response}s, used to replay them to requests that arrive
+ * right after the original one completed.
+ * <p>
+ * Entries expire after a fixed window and the memo is bounded both by amount of entries and by
+ * the sum of their body sizes. Since every entry lives the same amount of time, insertion order is
+ * also expiration order, so the oldest entries are the first evicted.
+ */
+final class ResponseMemo {
+
+    private final long mWindowNanos;
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+    private long mTotalBytes;
+
+    ResponseMemo(long windowNanos, int maxEntries, long maxBytes) {
+        mWindowNanos = windowNanos;
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return whether responses are being memoized at all
+     */
+    boolean isEnabled() {
+        return mWindowNanos > 0 && mMaxEntries > 0;
+    }
+
+    /**
+     * @param key fingerprint of the request
+     *
+     * @return the memoized {@link Response} or <code>null</code> if there's none or it expired
+     */
+    @Nullable
+    synchronized Response<?> get(@NonNull String key) {
+        evictExpired(System.nanoTime());
+        Entry entry = mEntries.get(key);
+        return entry == null ? null : entry.mResponse;
+    }
+
+    /**
+     * Memoizes a successful {@link Response}. Unsuccessful ones are ignored since their error
+     * body can be read only once. Responses bigger than the byte limit are not memoized either.
+     *
+     * @param key fingerprint of the request
+     * @param response to replay
+     */
+    synchronized void put(@NonNull String key, @NonNull Response<?> response) {
+        if (!response.isSuccessful()) return;
+
+        long bytes = sizeOf(response);
+        if (bytes > mMaxBytes) return;
+
+        long now = System.nanoTime();
+        Entry previous = mEntries.remove(key);
+        if (previous != null) mTotalBytes -= previous.mBytes;
+
+        mEntries.put(key, new Entry(response, bytes, now + mWindowNanos));
+        mTotalBytes += bytes;
+
+        evictExpired(now);
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mEntries.size() > mMaxEntries || mTotalBytes > mMaxBytes) {
+            mTotalBytes -= iterator.next().mBytes;
+            iterator.remove();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.mExpiresAtNanos - now > 0) return;
+            mTotalBytes -= entry.mBytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Retrofit keeps the length of the original body in the raw response. Bodies of unknown
+     * length (chunked or decompressed on the fly) are only bounded by the amount of entries.
+     */
+    private static long sizeOf(@NonNull Response<?> response) {
+        ResponseBody rawBody = response.raw().body();
+        return rawBody == null ? 0 : Math.max(rawBody.contentLength(), 0);
+    }
+
+    private static final class Entry {
+
+        private final Response<?> mResponse;
+        private final long mBytes;
+        private final long mExpiresAtNanos;
+
+        private Entry(@NonNull Response<?> response, long bytes, long expiresAtNanos) {
+            mResponse = response;
+            mBytes = bytes;
+            mExpiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Read only copy of a {@link ResponseBody}, read once so it can be shared by several readers.
+ * <p>
+ * Every {@link #newView()} is an independent {@link ResponseBody} that reads straight from the
+ * shared content, without copying it, so each reader can consume and close its own.
+ */
+final class SharedResponseBody {
+
+    private final MediaType mContentType;
+    private final byte[] mContent;
+
+    private SharedResponseBody(@Nullable MediaType contentType, @NonNull byte[] content) {
+        mContentType = contentType;
+        mContent = content;
+    }
+
+    /**
+     * Reads and closes the body, releasing its resources.
+     *
+     * @param body to read
+     *
+     * @return a {@link SharedResponseBody} with the content of the body
+     *
+     * @throws IOException if the body can't be read
+     */
+    @NonNull
+    static SharedResponseBody read(@NonNull ResponseBody body) throws IOException {
+        return new SharedResponseBody(body.contentType(), body.bytes());
+    }
+
+    /**
+     * @return a new {@link ResponseBody} positioned at the start of the shared content
+     */
+    @NonNull
+    ResponseBody newView() {
+        return new ResponseBody() {
+
+            private BufferedSource mSource;
+
+            @Nullable
+            @Override
+            public MediaType contentType() {
+                return mContentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return mContent.length;
+            }
+
+            @Override
+            public synchronized BufferedSource source() {
+                if (mSource == null) {
+                    mSource = Okio.buffer(Okio.source(new ByteArrayInputStream(mContent)));
+                }
+                return mSource;
+            }
+        };
+    }
+}
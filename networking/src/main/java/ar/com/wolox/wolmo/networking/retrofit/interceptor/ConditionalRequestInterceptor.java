@@ -0,0 +1,57 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.retrofit.interceptor;
+
+import androidx.annotation.NonNull;
+
+import ar.com.wolox.wolmo.networking.offline.ValidatorStore;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * An implementation of OkHTTP's {@link Interceptor} that makes armed requests conditional and
+ * keeps the validators of every response in a {@link ValidatorStore}.
+ * <p>
+ * It must be added as an application interceptor, with
+ * {@link okhttp3.OkHttpClient.Builder#addInterceptor(Interceptor)}, so it sees the same URLs
+ * Retrofit calls have.
+ */
+public class ConditionalRequestInterceptor implements Interceptor {
+
+    private final ValidatorStore mValidatorStore;
+
+    public ConditionalRequestInterceptor(@NonNull ValidatorStore validatorStore) {
+        mValidatorStore = validatorStore;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = mValidatorStore.prepare(chain.request());
+        Response response = chain.proceed(request);
+        mValidatorStore.update(response);
+        return response;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ar.com.wolox.wolmo.core.java8.Consumer;
+import ar.com.wolox.wolmo.networking.exception.NetworkResourceException;
+import ar.com.wolox.wolmo.networking.optimizations.ICallCollapser;
+import ar.com.wolox.wolmo.networking.optimizations.ICallSubscription;
+import ar.com.wolox.wolmo.networking.test_utils.RetrofitCallMockBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+public class BatchQueryTest {
+
+    private Repository<String, String> mRepository;
+    private ICallCollapser mCallCollapserMock;
+    private Repository.QueryStrategy<String, String> mQueryStrategyMock;
+    private List<Callback<String>> mPendingCallbacks;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void beforeTest() {
+        mCallCollapserMock = mock(ICallCollapser.class);
+        mQueryStrategyMock = mock(Repository.QueryStrategy.class);
+        mRepository = new Repository<>("Cache", mCallCollapserMock);
+        mPendingCallbacks = new ArrayList<>();
+
+        // Delegate the Collapser enqueue to the Call
+        doAnswer(invocation -> {
+            Call<String> call = invocation.getArgument(0);
+            call.enqueue(invocation.getArgument(1));
+            return mock(ICallSubscription.class);
+        }).when(mCallCollapserMock).subscribe(any(Call.class), any(Callback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void runBatch() {
+        Call<String> successCallMock = new RetrofitCallMockBuilder().buildSuccess("Response");
+        Call<String> errorCallMock = new RetrofitCallMockBuilder().buildError(500);
+        Call<String> cachedCallMock = new RetrofitCallMockBuilder().buildSuccess("Unused");
+        Repository.QueryStrategy<String, String> cachedQueryStrategyMock =
+                mock(Repository.QueryStrategy.class);
+        when(cachedQueryStrategyMock.readLocalSource(any(String.class))).thenReturn("Cached");
+
+        Consumer<BatchQuery.Result<String>> onResultMock = mock(Consumer.class);
+        List<List<BatchQuery.Result<String>>> completions = new ArrayList<>();
+
+        // Do things
+        mRepository.batch()
+                .add(successCallMock, mQueryStrategyMock)
+                .add(errorCallMock, mQueryStrategyMock)
+                .add(cachedCallMock, cachedQueryStrategyMock)
+                .onResult(onResultMock)
+                .onComplete(completions::add)
+                .run();
+
+        // Verify every result is notified, and the results in order once complete
+        verify(onResultMock, times(3)).accept(any(BatchQuery.Result.class));
+        verify(mCallCollapserMock, never()).subscribe(eq(cachedCallMock), any(Callback.class));
+        assertThat(completions).hasSize(1);
+
+        List<BatchQuery.Result<String>> results = completions.get(0);
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0).isSuccessful()).isTrue();
+        assertThat(results.get(0).getData()).isEqualTo("Response");
+        assertThat(results.get(1).isSuccessful()).isFalse();
+        assertThat(results.get(1).getError()).isInstanceOf(NetworkResourceException.class);
+        assertThat(results.get(2).getIndex()).isEqualTo(2);
+        assertThat(results.get(2).getData()).isEqualTo("Cached");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void runBatchLimitsConcurrentFetches() {
+        Call<String> firstCallMock = buildPendingCall();
+        Call<String> secondCallMock = buildPendingCall();
+        Call<String> thirdCallMock = buildPendingCall();
+
+        List<Integer> partialResults = new ArrayList<>();
+        List<List<BatchQuery.Result<String>>> completions = new ArrayList<>();
+
+        // Do things
+        mRepository.batch(2)
+                .add(firstCallMock, mQueryStrategyMock)
+                .add(secondCallMock, mQueryStrategyMock)
+                .add(thirdCallMock, mQueryStrategyMock)
+                .onResult(result -> partialResults.add(result.getIndex()))
+                .onComplete(completions::add)
+                .run();
+
+        // Verify every cache is read, but only two requests are made
+        verify(mQueryStrategyMock, times(3)).readLocalSource(eq("Cache"));
+        verify(mCallCollapserMock, never()).subscribe(eq(thirdCallMock), any(Callback.class));
+        assertThat(mPendingCallbacks).hasSize(2);
+
+        // The second request finishes first, freeing a slot for the third one
+        mPendingCallbacks.get(1).onResponse(secondCallMock, Response.success("Second"));
+        assertThat(partialResults).containsExactly(1);
+        verify(mCallCollapserMock, times(1)).subscribe(eq(thirdCallMock), any(Callback.class));
+
+        mPendingCallbacks.get(2).onFailure(thirdCallMock, new RuntimeException());
+        assertThat(completions).isEmpty();
+        mPendingCallbacks.get(0).onResponse(firstCallMock, Response.success("First"));
+
+        assertThat(partialResults).containsExactly(1, 2, 0);
+        assertThat(completions).hasSize(1);
+        assertThat(completions.get(0).get(0).getData()).isEqualTo("First");
+        assertThat(completions.get(0).get(2).getError()).isInstanceOf(RuntimeException.class);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void runEmptyBatch() {
+        Consumer<List<BatchQuery.Result<String>>> onCompleteMock = mock(Consumer.class);
+
+        BatchQuery<String, String> batchQuery = mRepository.batch().onComplete(onCompleteMock);
+        batchQuery.run();
+
+        verify(onCompleteMock, times(1)).accept(eq(new ArrayList<>()));
+        assertThatThrownBy(batchQuery::run).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> batchQuery.add(mock(Call.class), mQueryStrategyMock))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private Call<String> buildPendingCall() {
+        return new RetrofitCallMockBuilder<String>()
+                .build((call, callback) -> mPendingCallbacks.add(callback));
+    }
+}
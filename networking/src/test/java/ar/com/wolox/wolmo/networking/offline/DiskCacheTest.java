@@ -0,0 +1,180 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class DiskCacheTest {
+
+    private static final int SEGMENT_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mDirectory;
+    private DiskCache<Item> mDiskCache;
+
+    @Before
+    public void beforeTest() throws IOException {
+        mDirectory = mTemporaryFolder.newFolder("cache");
+        mDiskCache = open(1024);
+    }
+
+    @After
+    public void afterTest() throws IOException {
+        mDiskCache.close();
+    }
+
+    @Test
+    public void putAndGet() {
+        mDiskCache.put("first", new Item("First", 1));
+        mDiskCache.put("second", new Item("Second", 2));
+        mDiskCache.put("first", new Item("First again", 3));
+
+        assertThat(mDiskCache.get("first")).isEqualTo(new Item("First again", 3));
+        assertThat(mDiskCache.get("second")).isEqualTo(new Item("Second", 2));
+        assertThat(mDiskCache.get("third")).isNull();
+        assertThat(mDiskCache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void reopenKeepsEntries() throws IOException {
+        mDiskCache.put("first", new Item("First", 1));
+        mDiskCache.put("second", new Item("Second", 2));
+        mDiskCache.put("first", new Item("First again", 3));
+        mDiskCache.remove("second");
+        mDiskCache.close();
+
+        mDiskCache = open(1024);
+
+        assertThat(mDiskCache.get("first")).isEqualTo(new Item("First again", 3));
+        assertThat(mDiskCache.get("second")).isNull();
+        assertThat(mDiskCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void reopenIgnoresCorruptRecords() throws IOException {
+        mDiskCache.put("first", new Item("First", 1));
+        mDiskCache.put("second", new Item("Second", 2));
+        mDiskCache.close();
+
+        // Flip the last byte of the second record
+        File segment = new File(mDirectory, "segment-0.dat");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        long secondOffset = 8 + file.readInt();
+        file.seek(secondOffset);
+        file.seek(secondOffset + 8 + file.readInt() - 1);
+        file.writeByte('X');
+        file.close();
+
+        mDiskCache = open(1024);
+
+        assertThat(mDiskCache.get("first")).isEqualTo(new Item("First", 1));
+        assertThat(mDiskCache.get("second")).isNull();
+
+        // New records are appended over the corrupt one
+        mDiskCache.put("third", new Item("Third", 3));
+        mDiskCache.close();
+        mDiskCache = open(1024);
+        assertThat(mDiskCache.get("third")).isEqualTo(new Item("Third", 3));
+    }
+
+    @Test
+    public void putCompactsDeadRecords() {
+        for (int i = 0; i < 50; i++) {
+            mDiskCache.put("key", new Item("Value", i));
+        }
+
+        // Replaced values are dropped instead of filling new segments
+        assertThat(mDiskCache.getSegmentCount()).isLessThanOrEqualTo(2);
+        assertThat(mDiskCache.get("key")).isEqualTo(new Item("Value", 49));
+    }
+
+    @Test
+    public void putEvictsOldestEntries() throws IOException {
+        mDiskCache.close();
+        mDiskCache = open(100);
+
+        mDiskCache.put("first", new Item("First", 1));
+        mDiskCache.put("second", new Item("Second", 2));
+        mDiskCache.put("third", new Item("Third", 3));
+
+        assertThat(mDiskCache.get("first")).isNull();
+        assertThat(mDiskCache.get("third")).isEqualTo(new Item("Third", 3));
+    }
+
+    @Test
+    public void putTooBigValue() {
+        mDiskCache.put("key", new Item("Value", 1));
+        mDiskCache.put("key", new Item(new String(new char[SEGMENT_SIZE]).replace('\0', 'a'), 2));
+
+        assertThat(mDiskCache.get("key")).isNull();
+    }
+
+    @Test
+    public void clearDeletesSegments() {
+        mDiskCache.put("first", new Item("First", 1));
+        mDiskCache.clear();
+
+        assertThat(mDiskCache.get("first")).isNull();
+        assertThat(mDirectory.listFiles()).isEmpty();
+    }
+
+    private DiskCache<Item> open(long maxSize) throws IOException {
+        return new DiskCache<>(mDirectory, new Gson(), Item.class, SEGMENT_SIZE, maxSize);
+    }
+
+    private static final class Item {
+
+        private final String mName;
+        private final int mCount;
+
+        private Item(String name, int count) {
+            mName = name;
+            mCount = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Item)) return false;
+            Item item = (Item) o;
+            return mCount == item.mCount && mName.equals(item.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mName.hashCode() + mCount;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ExpiryTrackerTest {
+
+    private static final long TICK_MILLIS = 10;
+
+    private long mNowNanos;
+    private List<String> mExpiredKeys;
+    private ExpiryTracker<String> mExpiryTracker;
+
+    @Before
+    public void beforeTest() {
+        mNowNanos = 0;
+        mExpiredKeys = new ArrayList<>();
+        mExpiryTracker = new ExpiryTracker<String>(TICK_MILLIS, mExpiredKeys::add) {
+            @Override
+            long nanoTime() {
+                return mNowNanos;
+            }
+        };
+    }
+
+    @Test
+    public void isExpired() {
+        assertThat(mExpiryTracker.isExpired("key")).isTrue();
+
+        mExpiryTracker.refresh("key", 100);
+        advance(99);
+        assertThat(mExpiryTracker.isExpired("key")).isFalse();
+        advance(1);
+        assertThat(mExpiryTracker.isExpired("key")).isTrue();
+    }
+
+    @Test
+    public void isTracked() {
+        assertThat(mExpiryTracker.isTracked("key")).isFalse();
+
+        mExpiryTracker.refresh("key", 100);
+        advance(100);
+        assertThat(mExpiryTracker.isTracked("key")).isTrue();
+        mExpiryTracker.sweep();
+        assertThat(mExpiryTracker.isTracked("key")).isFalse();
+    }
+
+    @Test
+    public void sweepExpiredKeys() {
+        mExpiryTracker.refresh("first", 100);
+        mExpiryTracker.refresh("second", 10_000);
+        mExpiryTracker.refresh("third", TimeUnit.HOURS.toMillis(2));
+
+        advance(150);
+        assertThat(mExpiryTracker.sweep()).isEqualTo(1);
+        assertThat(mExpiredKeys).containsExactly("first");
+        assertThat(mExpiryTracker.size()).isEqualTo(2);
+
+        advance(10_000);
+        assertThat(mExpiryTracker.sweep()).isEqualTo(1);
+        assertThat(mExpiredKeys).containsExactly("first", "second");
+
+        advance(TimeUnit.HOURS.toMillis(2));
+        assertThat(mExpiryTracker.sweep()).isEqualTo(1);
+        assertThat(mExpiredKeys).containsExactly("first", "second", "third");
+        assertThat(mExpiryTracker.size()).isZero();
+    }
+
+    @Test
+    public void sweepRefreshedKey() {
+        mExpiryTracker.refresh("key", 100);
+        advance(50);
+        mExpiryTracker.refresh("key", 5000);
+
+        advance(1000);
+        assertThat(mExpiryTracker.sweep()).isZero();
+        assertThat(mExpiryTracker.isExpired("key")).isFalse();
+
+        advance(4000);
+        assertThat(mExpiryTracker.sweep()).isEqualTo(1);
+        assertThat(mExpiredKeys).containsExactly("key");
+    }
+
+    @Test
+    public void sweepRemovedKey() {
+        mExpiryTracker.refresh("key", 100);
+        mExpiryTracker.remove("key");
+
+        advance(200);
+        assertThat(mExpiryTracker.sweep()).isZero();
+        assertThat(mExpiryTracker.isExpired("key")).isTrue();
+        assertThat(mExpiredKeys).isEmpty();
+    }
+
+    @Test
+    public void sweepKeysBeyondWheel() {
+        long timeToLive = TICK_MILLIS * (1L << 24) * 2;
+        mExpiryTracker.refresh("key", timeToLive);
+
+        advance(timeToLive - TICK_MILLIS);
+        assertThat(mExpiryTracker.sweep()).isZero();
+        advance(TICK_MILLIS);
+        assertThat(mExpiryTracker.sweep()).isEqualTo(1);
+    }
+
+    @Test
+    public void sweepManyKeys() {
+        Random random = new Random(42);
+        Map<String, Long> deadlines = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            long timeToLive = 1 + random.nextInt(500_000);
+            mExpiryTracker.refresh("key" + i, timeToLive);
+            deadlines.put("key" + i, timeToLive);
+        }
+
+        // Keys are swept on the first tick at or after their deadline, never before
+        long now = 0;
+        while (!deadlines.isEmpty()) {
+            long step = 1 + random.nextInt(5000);
+            advance(step);
+            now += step;
+            mExpiredKeys.clear();
+            mExpiryTracker.sweep();
+
+            long sweptTick = now / TICK_MILLIS * TICK_MILLIS;
+            for (Map.Entry<String, Long> deadline : new HashMap<>(deadlines).entrySet()) {
+                boolean due = deadline.getValue() <= sweptTick;
+                assertThat(mExpiredKeys.contains(deadline.getKey())).isEqualTo(due);
+                if (due) {
+                    deadlines.remove(deadline.getKey());
+                }
+            }
+        }
+        assertThat(mExpiryTracker.size()).isZero();
+    }
+
+    @Test
+    public void startSweepsInBackground() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        ExpiryTracker<String> expiryTracker = new ExpiryTracker<>(5, key -> latch.countDown());
+        expiryTracker.refresh("key", 20);
+        expiryTracker.start();
+
+        assertThat(latch.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(expiryTracker.size()).isZero();
+        expiryTracker.stop();
+    }
+
+    @Test
+    public void sweepNotifiesEveryKeyWhenListenerFails() {
+        List<String> notifiedKeys = new ArrayList<>();
+        ExpiryTracker<String> expiryTracker = new ExpiryTracker<String>(TICK_MILLIS, key -> {
+            notifiedKeys.add(key);
+            throw new IllegalStateException(key);
+        }) {
+            @Override
+            long nanoTime() {
+                return mNowNanos;
+            }
+        };
+        expiryTracker.refresh("first", 100);
+        expiryTracker.refresh("second", 100);
+        advance(150);
+
+        // Every key is notified before the first failure is thrown
+        IllegalStateException failure = null;
+        try {
+            expiryTracker.sweep();
+        } catch (IllegalStateException e) {
+            failure = e;
+        }
+        assertThat(notifiedKeys).containsExactly("first", "second");
+        assertThat(failure).hasMessage("first");
+        assertThat(expiryTracker.size()).isZero();
+    }
+
+    @Test
+    public void startKeepsSweepingWhenListenerFails() throws Exception {
+        CountDownLatch latch = new CountDownLatch(2);
+        ExpiryTracker<String> expiryTracker = new ExpiryTracker<>(5, key -> {
+            latch.countDown();
+            throw new IllegalStateException(key);
+        });
+        expiryTracker.refresh("first", 10);
+        expiryTracker.start();
+        Thread.sleep(50);
+
+        // Keys expiring after the failure are still swept
+        expiryTracker.refresh("second", 10);
+        assertThat(latch.await(1, TimeUnit.SECONDS)).isTrue();
+        expiryTracker.stop();
+    }
+
+    private void advance(long millis) {
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyedTimeResolveQueryStrategyTest {
+
+    private static final int REFRESH_DELTA = 50;
+
+    private MemoryCache<String, String> mMemoryCache;
+    private KeyedTimeResolveQueryStrategy<String, String> mQueryStrategy;
+
+    @Before
+    public void beforeTest() {
+        mMemoryCache = new MemoryCache<>(10);
+        mQueryStrategy = new KeyedTimeResolveQueryStrategy<>("key", REFRESH_DELTA);
+    }
+
+    @Test
+    public void readRefreshedKey() {
+        mMemoryCache.put("other", "Other");
+        mQueryStrategy.consumeRemoteSource("Data", mMemoryCache);
+
+        assertThat(mQueryStrategy.readLocalSource(mMemoryCache)).isEqualTo("Data");
+        assertThat(mMemoryCache.get("other")).isEqualTo("Other");
+    }
+
+    @Test
+    public void readInvalidatedKey() throws Exception {
+        mMemoryCache.put("other", "Other");
+        mQueryStrategy.consumeRemoteSource("Data", mMemoryCache);
+        Thread.sleep(REFRESH_DELTA + 10);
+
+        // Only the key of the strategy is removed
+        assertThat(mQueryStrategy.readLocalSource(mMemoryCache)).isNull();
+        assertThat(mMemoryCache.get("key")).isNull();
+        assertThat(mMemoryCache.get("other")).isEqualTo("Other");
+    }
+
+    @Test
+    public void readKeysWithExpiryTracker() throws Exception {
+        ExpiryTracker<String> expiryTracker = new ExpiryTracker<>(mMemoryCache::remove);
+        KeyedTimeResolveQueryStrategy<String, String> shortStrategy =
+                new KeyedTimeResolveQueryStrategy<>("short", expiryTracker, REFRESH_DELTA);
+        KeyedTimeResolveQueryStrategy<String, String> longStrategy =
+                new KeyedTimeResolveQueryStrategy<>("long", expiryTracker, REFRESH_DELTA * 100);
+
+        // Keys not refreshed yet are fetched again, but their value is kept
+        mMemoryCache.put("long", "Old");
+        assertThat(longStrategy.readLocalSource(mMemoryCache)).isNull();
+        assertThat(mMemoryCache.get("long")).isEqualTo("Old");
+
+        shortStrategy.consumeRemoteSource("Short", mMemoryCache);
+        longStrategy.consumeRemoteSource("Long", mMemoryCache);
+        Thread.sleep(REFRESH_DELTA + 10);
+
+        // Each key expires on its own, and new instances share the freshness of the key
+        assertThat(shortStrategy.readLocalSource(mMemoryCache)).isNull();
+        assertThat(new KeyedTimeResolveQueryStrategy<String, String>("long", expiryTracker,
+                REFRESH_DELTA * 100).readLocalSource(mMemoryCache)).isEqualTo("Long");
+    }
+
+    @Test
+    public void readExpiredKeyWithExpiryTracker() throws Exception {
+        // The tracker isn't started, so the expired key is still tracked
+        ExpiryTracker<String> expiryTracker = new ExpiryTracker<>(key -> {});
+        KeyedTimeResolveQueryStrategy<String, String> queryStrategy =
+                new KeyedTimeResolveQueryStrategy<>("key", expiryTracker, REFRESH_DELTA);
+        queryStrategy.consumeRemoteSource("Data", mMemoryCache);
+        Thread.sleep(REFRESH_DELTA + 10);
+
+        assertThat(expiryTracker.isTracked("key")).isTrue();
+        assertThat(queryStrategy.readLocalSource(mMemoryCache)).isNull();
+        assertThat(mMemoryCache.get("key")).isNull();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MemoryCacheTest {
+
+    private MemoryCache<String, String> mMemoryCache;
+
+    @Before
+    public void beforeTest() {
+        // A single segment, so eviction order is predictable
+        mMemoryCache = new MemoryCache<>(10, (key, value) -> value.length(), 1);
+    }
+
+    @Test
+    public void getCountsHitsAndMisses() {
+        mMemoryCache.put("first", "12345");
+
+        assertThat(mMemoryCache.get("first")).isEqualTo("12345");
+        assertThat(mMemoryCache.get("second")).isNull();
+        assertThat(mMemoryCache.get("first")).isEqualTo("12345");
+
+        assertThat(mMemoryCache.getHitCount()).isEqualTo(2);
+        assertThat(mMemoryCache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void putEvictsLeastRecentlyUsed() {
+        mMemoryCache.put("first", "1234");
+        mMemoryCache.put("second", "1234");
+        mMemoryCache.get("first");
+
+        // Exceeds the maximum weight, so the least recently used is evicted
+        mMemoryCache.put("third", "1234");
+
+        assertThat(mMemoryCache.get("second")).isNull();
+        assertThat(mMemoryCache.get("first")).isEqualTo("1234");
+        assertThat(mMemoryCache.get("third")).isEqualTo("1234");
+        assertThat(mMemoryCache.getWeight()).isEqualTo(8);
+        assertThat(mMemoryCache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void putReplacesValueWeight() {
+        mMemoryCache.put("first", "1234");
+        mMemoryCache.put("first", "12");
+
+        assertThat(mMemoryCache.size()).isEqualTo(1);
+        assertThat(mMemoryCache.getWeight()).isEqualTo(2);
+    }
+
+    @Test
+    public void putTooHeavyValue() {
+        mMemoryCache.put("first", "1234");
+        mMemoryCache.put("second", "12345678901");
+
+        assertThat(mMemoryCache.get("second")).isNull();
+        assertThat(mMemoryCache.get("first")).isEqualTo("1234");
+        assertThat(mMemoryCache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void removeAndClear() {
+        mMemoryCache.put("first", "1");
+        mMemoryCache.put("second", "2");
+        mMemoryCache.put("third", "3");
+
+        mMemoryCache.remove("first");
+        assertThat(mMemoryCache.get("first")).isNull();
+        assertThat(mMemoryCache.getWeight()).isEqualTo(2);
+
+        mMemoryCache.clear();
+        assertThat(mMemoryCache.size()).isEqualTo(0);
+        assertThat(mMemoryCache.getWeight()).isEqualTo(0);
+    }
+
+    @Test
+    public void putFromSeveralThreadsRespectsMaxWeight() throws Exception {
+        final int threads = 8;
+        final MemoryCache<Integer, Integer> cache = new MemoryCache<>(64);
+        CountDownLatch doneLatch = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            final int offset = i * 1000;
+            new Thread(() -> {
+                for (int key = offset; key < offset + 1000; key++) {
+                    cache.put(key, key);
+                    cache.get(key - 1);
+                }
+                doneLatch.countDown();
+            }).start();
+        }
+
+        assertThat(doneLatch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(cache.getWeight()).isLessThanOrEqualTo(64);
+        assertThat(cache.size()).isEqualTo((int) cache.getWeight());
+        assertThat(cache.getEvictionCount()).isEqualTo(threads * 1000 - cache.size());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+
+public class NegativeCacheTest {
+
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json");
+
+    private long mNowNanos;
+    private NegativeCache mNegativeCache;
+    private Request mRequest;
+
+    @Before
+    public void beforeTest() {
+        mNowNanos = 0;
+        mNegativeCache = buildNegativeCache(NegativeCache.DEFAULT_MAX_ENTRIES);
+        mRequest = buildRequest("http://test.com/items?page=1&sort=name");
+    }
+
+    @Test
+    public void putCachedStatus() {
+        assertThat(mNegativeCache.put(mRequest, 404, null)).isNotNull();
+
+        // Requests are matched by their fingerprint
+        NegativeCache.Entry entry =
+                mNegativeCache.get(buildRequest("http://test.com/items?sort=name&page=1"));
+        assertThat(entry).isNotNull();
+        assertThat(entry.getCode()).isEqualTo(404);
+        assertThat(entry.getErrorBody()).isNull();
+        assertThat(mNegativeCache.get(buildRequest("http://test.com/items?page=2"))).isNull();
+    }
+
+    @Test
+    public void putNotCachedStatus() {
+        assertThat(mNegativeCache.put(mRequest, 500, null)).isNull();
+        assertThat(mNegativeCache.get(mRequest)).isNull();
+
+        mNegativeCache.cacheStatus(500, 1000);
+        assertThat(mNegativeCache.put(mRequest, 500, null)).isNotNull();
+
+        mNegativeCache.cacheStatus(404, 0);
+        assertThat(mNegativeCache.put(buildRequest("http://test.com/other"), 404, null)).isNull();
+    }
+
+    @Test
+    public void getExpiredEntry() {
+        mNegativeCache.cacheStatus(503, 1000);
+        mNegativeCache.put(mRequest, 503, null);
+        mNegativeCache.put(buildRequest("http://test.com/other"), 404, null);
+
+        advance(999);
+        assertThat(mNegativeCache.get(mRequest)).isNotNull();
+        advance(1);
+        assertThat(mNegativeCache.get(mRequest)).isNull();
+
+        // Each status has its own time to live
+        assertThat(mNegativeCache.get(buildRequest("http://test.com/other"))).isNotNull();
+        advance(NegativeCache.DEFAULT_TIME_TO_LIVE_MILLIS);
+        assertThat(mNegativeCache.get(buildRequest("http://test.com/other"))).isNull();
+        assertThat(mNegativeCache.size()).isZero();
+    }
+
+    @Test
+    public void putKeepingErrorBodies() {
+        mNegativeCache.keepErrorBodies(true);
+
+        NegativeCache.Entry entry = mNegativeCache.put(mRequest, 404,
+                ResponseBody.create(MEDIA_TYPE_JSON, "{\"error\":\"not_found\"}"));
+        assertThat(entry.getErrorBody()).isEqualTo("{\"error\":\"not_found\"}");
+
+        // Big bodies are dropped, but the response is still cached
+        char[] content = new char[NegativeCache.MAX_ERROR_BODY_BYTES + 1];
+        Arrays.fill(content, 'a');
+        entry = mNegativeCache.put(mRequest, 404,
+                ResponseBody.create(MEDIA_TYPE_JSON, new String(content)));
+        assertThat(entry.getErrorBody()).isNull();
+        assertThat(mNegativeCache.get(mRequest)).isNotNull();
+    }
+
+    @Test
+    public void removeEntries() {
+        mNegativeCache = buildNegativeCache(2);
+        Request otherRequest = buildRequest("http://test.com/other");
+        mNegativeCache.put(mRequest, 404, null);
+        mNegativeCache.put(otherRequest, 404, null);
+        mNegativeCache.put(buildRequest("http://test.com/another"), 410, null);
+
+        // The least recently used one is evicted
+        assertThat(mNegativeCache.size()).isEqualTo(2);
+        assertThat(mNegativeCache.get(mRequest)).isNull();
+
+        mNegativeCache.remove(otherRequest);
+        assertThat(mNegativeCache.get(otherRequest)).isNull();
+        mNegativeCache.clear();
+        assertThat(mNegativeCache.size()).isZero();
+    }
+
+    private NegativeCache buildNegativeCache(int maxEntries) {
+        return new NegativeCache(maxEntries) {
+            @Override
+            long nanoTime() {
+                return mNowNanos;
+            }
+        };
+    }
+
+    private Request buildRequest(String url) {
+        return new Request.Builder().url(url).build();
+    }
+
+    private void advance(long millis) {
+        mNowNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
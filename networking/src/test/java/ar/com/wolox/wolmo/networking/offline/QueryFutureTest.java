@@ -0,0 +1,232 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import ar.com.wolox.wolmo.core.java8.Consumer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeoutException;
+
+public class QueryFutureTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void completeOnce() throws Exception {
+        QueryFuture<String> future = new QueryFuture<>();
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+        Consumer<Throwable> onErrorMock = mock(Consumer.class);
+        future.onSuccess(onSuccessMock).onError(onErrorMock);
+
+        assertThat(future.isDone()).isFalse();
+        assertThat(future.complete("Value")).isTrue();
+        assertThat(future.complete("Other")).isFalse();
+        assertThat(future.completeExceptionally(new IOException())).isFalse();
+
+        assertThat(future.isDone()).isTrue();
+        assertThat(future.get()).isEqualTo("Value");
+        verify(onSuccessMock, times(1)).accept("Value");
+        verify(onErrorMock, never()).accept(any(Throwable.class));
+
+        // Consumers set after completion are notified right away
+        Consumer<String> lateOnSuccessMock = mock(Consumer.class);
+        future.onSuccess(lateOnSuccessMock);
+        verify(lateOnSuccessMock, times(1)).accept("Value");
+    }
+
+    @Test
+    public void getFailedFuture() {
+        IOException exception = new IOException();
+        QueryFuture<String> future = QueryFuture.failed(exception);
+
+        assertThatThrownBy(future::get).isInstanceOf(ExecutionException.class)
+                .hasCause(exception);
+    }
+
+    @Test
+    public void getCancelledFuture() {
+        QueryFuture<String> future = new QueryFuture<>();
+
+        assertThat(future.cancel(false)).isTrue();
+        assertThat(future.isCancelled()).isTrue();
+        assertThatThrownBy(future::get).isInstanceOf(CancellationException.class);
+    }
+
+    @Test
+    public void getWithTimeout() throws Exception {
+        QueryFuture<String> future = new QueryFuture<>();
+        assertThatThrownBy(() -> future.get(10, TimeUnit.MILLISECONDS))
+                .isInstanceOf(TimeoutException.class);
+
+        new Thread(() -> future.complete("Value")).start();
+        assertThat(future.get(1, TimeUnit.SECONDS)).isEqualTo("Value");
+    }
+
+    @Test
+    public void map() throws Exception {
+        QueryFuture<String> future = new QueryFuture<>();
+        QueryFuture<Integer> mapped = future.map(String::length);
+        QueryFuture<Integer> failedMapped = future.map(value -> {
+            throw new IOException();
+        });
+
+        future.complete("Value");
+
+        assertThat(mapped.get()).isEqualTo(5);
+        assertThatThrownBy(failedMapped::get).hasCauseInstanceOf(IOException.class);
+        assertThatThrownBy(QueryFuture.<String>failed(new IOException()).map(String::length)::get)
+                .hasCauseInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void flatMap() throws Exception {
+        QueryFuture<String> future = new QueryFuture<>();
+        QueryFuture<Integer> next = new QueryFuture<>();
+        QueryFuture<Integer> flatMapped = future.flatMap(value -> next);
+
+        future.complete("Value");
+        assertThat(flatMapped.isDone()).isFalse();
+        next.complete(5);
+
+        assertThat(flatMapped.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void allOf() throws Exception {
+        QueryFuture<String> first = new QueryFuture<>();
+        QueryFuture<String> second = new QueryFuture<>();
+        QueryFuture<List<String>> all = QueryFuture.allOf(Arrays.asList(first, second));
+
+        second.complete("Second");
+        assertThat(all.isDone()).isFalse();
+        first.complete("First");
+
+        assertThat(all.get()).containsExactly("First", "Second");
+        assertThat(QueryFuture.allOf(Collections.<QueryFuture<String>>emptyList()).get())
+                .isEmpty();
+    }
+
+    @Test
+    public void allOfFailing() {
+        QueryFuture<String> first = new QueryFuture<>();
+        QueryFuture<String> second = new QueryFuture<>();
+        QueryFuture<List<String>> all = QueryFuture.allOf(Arrays.asList(first, second));
+
+        second.completeExceptionally(new IOException());
+
+        assertThat(all.isDone()).isTrue();
+        assertThatThrownBy(all::get).hasCauseInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void anyOf() throws Exception {
+        QueryFuture<String> first = new QueryFuture<>();
+        QueryFuture<String> second = new QueryFuture<>();
+        QueryFuture<String> any = QueryFuture.anyOf(Arrays.asList(first, second));
+
+        // Errors are ignored while another future may succeed
+        first.completeExceptionally(new IOException());
+        assertThat(any.isDone()).isFalse();
+        second.complete("Second");
+        assertThat(any.get()).isEqualTo("Second");
+
+        QueryFuture<String> failing = QueryFuture.anyOf(Arrays.asList(
+                QueryFuture.<String>failed(new IOException()),
+                QueryFuture.<String>failed(new IllegalStateException())));
+        assertThatThrownBy(failing::get).hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void withTimeout() throws Exception {
+        QueryFuture<String> slowFuture = new QueryFuture<String>().withTimeout(10,
+                TimeUnit.MILLISECONDS);
+        assertThatThrownBy(slowFuture::get).hasCauseInstanceOf(TimeoutException.class);
+
+        QueryFuture<String> future = new QueryFuture<>();
+        QueryFuture<String> timedFuture = future.withTimeout(1, TimeUnit.SECONDS);
+        future.complete("Value");
+        assertThat(timedFuture.get()).isEqualTo("Value");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void withTimeoutOnExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(
+                runnable -> new Thread(runnable, "Delivery"));
+        AtomicReference<String> errorThread = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        // Derived futures time out on the executor of the one they come from
+        new QueryFuture<String>(executor).map(String::trim).withTimeout(10, TimeUnit.MILLISECONDS)
+                .onError(error -> {
+                    throw new IllegalStateException();
+                })
+                .onError(error -> {
+                    errorThread.set(Thread.currentThread().getName());
+                    latch.countDown();
+                });
+
+        assertThat(latch.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(errorThread.get()).isEqualTo("Delivery");
+
+        // A failing listener doesn't stop the following timeouts
+        QueryFuture<String> slowFuture = new QueryFuture<String>().withTimeout(10,
+                TimeUnit.MILLISECONDS, (Executor) Runnable::run);
+        assertThatThrownBy(slowFuture::get).hasCauseInstanceOf(TimeoutException.class);
+        executor.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void completeNotifiesEveryListener() {
+        QueryFuture<String> future = new QueryFuture<>();
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+        future.onSuccess(value -> {
+            throw new IllegalStateException();
+        }).onSuccess(onSuccessMock);
+
+        assertThatThrownBy(() -> future.complete("Value"))
+                .isInstanceOf(IllegalStateException.class);
+        verify(onSuccessMock, times(1)).accept("Value");
+        assertThat(future.isDone()).isTrue();
+    }
+}
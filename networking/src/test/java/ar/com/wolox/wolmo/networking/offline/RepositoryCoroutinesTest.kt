@@ -0,0 +1,115 @@
+package ar.com.wolox.wolmo.networking.offline
+
+import ar.com.wolox.wolmo.networking.exception.NetworkResourceException
+import ar.com.wolox.wolmo.networking.optimizations.CallScheduler
+import ar.com.wolox.wolmo.networking.optimizations.ICallCollapser
+import ar.com.wolox.wolmo.networking.optimizations.ICallSubscription
+import ar.com.wolox.wolmo.networking.optimizations.await
+import ar.com.wolox.wolmo.networking.test_utils.RetrofitCallMockBuilder
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Before
+import org.junit.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.`when`
+import retrofit2.Call
+import retrofit2.Callback
+
+class RepositoryCoroutinesTest {
+
+    private lateinit var callCollapserMock: ICallCollapser
+    private lateinit var subscriptionMock: ICallSubscription
+    private lateinit var queryStrategyMock: Repository.QueryStrategy<String, String>
+    private lateinit var repository: Repository<String, String>
+
+    @Before
+    @Suppress("UNCHECKED_CAST")
+    fun beforeTest() {
+        callCollapserMock = mock(ICallCollapser::class.java)
+        subscriptionMock = mock(ICallSubscription::class.java)
+        queryStrategyMock = mock(Repository.QueryStrategy::class.java)
+                as Repository.QueryStrategy<String, String>
+        repository = coroutineRepository("Cache", callCollapserMock, Dispatchers.IO)
+
+        // Delegate the Collapser enqueue to the Call
+        doAnswer { invocation ->
+            val call = invocation.getArgument<Call<String>>(0)
+            call.enqueue(invocation.getArgument<Callback<String>>(1))
+            subscriptionMock
+        }.`when`(callCollapserMock).subscribe<String>(any(), any())
+    }
+
+    @Test
+    fun `awaiting a query returns its data`() = runBlocking<Unit> {
+        val call = RetrofitCallMockBuilder<String>().buildSuccess("Response")
+
+        val data = repository.awaitQuery(Repository.CACHE_FIRST, call, queryStrategyMock)
+
+        assertThat(data).isEqualTo("Response")
+        verify(queryStrategyMock, times(1)).readLocalSource("Cache")
+        verify(queryStrategyMock, times(1)).consumeRemoteSource("Response", "Cache")
+    }
+
+    @Test
+    fun `awaiting a failing query throws its error`() = runBlocking<Unit> {
+        val call = RetrofitCallMockBuilder<String>().buildError(500)
+
+        val error = runCatching {
+            repository.awaitQuery(Repository.CACHE_NONE, call, queryStrategyMock)
+        }.exceptionOrNull()
+
+        assertThat(error).isInstanceOf(NetworkResourceException::class.java)
+    }
+
+    @Test
+    fun `cancelling an awaited query unsubscribes from the collapser`() = runBlocking<Unit> {
+        val call = RetrofitCallMockBuilder<String>().build { _, _ -> }
+
+        val deferred = async(start = CoroutineStart.UNDISPATCHED) {
+            repository.awaitQuery(Repository.CACHE_NONE, call, queryStrategyMock)
+        }
+        deferred.cancel()
+        deferred.join()
+
+        assertThat(deferred.isCancelled).isTrue()
+        verify(subscriptionMock, times(1)).unsubscribe()
+        verify(queryStrategyMock, never()).consumeRemoteSource(any(), any())
+    }
+
+    @Test
+    fun `cancelling a query cancels the coroutine awaiting it`() = runBlocking<Unit> {
+        val call = RetrofitCallMockBuilder<String>().build { _, _ -> }
+        val query = repository.query(Repository.CACHE_NONE, call, queryStrategyMock)
+
+        val deferred = async(start = CoroutineStart.UNDISPATCHED) { query.await() }
+        query.cancel()
+        withTimeout(1000) { deferred.join() }
+
+        assertThat(deferred.isCancelled).isTrue()
+    }
+
+    @Test
+    fun `cancelling an awaited call unsubscribes from the collapser`() = runBlocking<Unit> {
+        val call = RetrofitCallMockBuilder<String>().build { _, _ -> }
+        `when`(callCollapserMock.subscribe<String>(any(), any(), anyInt()))
+                .thenReturn(subscriptionMock)
+
+        val deferred = async(start = CoroutineStart.UNDISPATCHED) {
+            callCollapserMock.await(call, CallScheduler.PRIORITY_USER_BLOCKING)
+        }
+        deferred.cancel()
+        deferred.join()
+
+        verify(subscriptionMock, times(1)).unsubscribe()
+    }
+}
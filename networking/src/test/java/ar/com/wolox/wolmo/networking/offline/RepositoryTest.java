@@ -21,10 +21,14 @@
  */
 package ar.com.wolox.wolmo.networking.offline;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -33,13 +37,23 @@ import ar.com.wolox.wolmo.core.java8.Consumer;
 import ar.com.wolox.wolmo.networking.exception.CacheMissException;
 import ar.com.wolox.wolmo.networking.exception.NetworkResourceException;
 import ar.com.wolox.wolmo.networking.optimizations.ICallCollapser;
+import ar.com.wolox.wolmo.networking.optimizations.ICallSubscription;
 import ar.com.wolox.wolmo.networking.test_utils.RetrofitCallMockBuilder;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.Callback;
+import retrofit2.Response;
 
 public class RepositoryTest {
 
@@ -60,8 +74,8 @@ public class RepositoryTest {
         doAnswer(invocation -> {
             Call<String> call = invocation.getArgument(0);
             call.enqueue(invocation.getArgument(1));
-            return null;
-        }).when(mCallCollapserMock).enqueue(any(Call.class), any(Callback.class));
+            return mock(ICallSubscription.class);
+        }).when(mCallCollapserMock).subscribe(any(Call.class), any(Callback.class));
     }
 
     @Test
@@ -85,7 +99,7 @@ public class RepositoryTest {
         verify(onSuccessMock, times(1)).accept(eq("CachedValue"));
 
         // Verify no network request
-        verify(mCallCollapserMock, times(0)).enqueue(eq(callMock), any(Callback.class));
+        verify(mCallCollapserMock, times(0)).subscribe(eq(callMock), any(Callback.class));
         verify(mQueryStrategyMock, times(0)).consumeRemoteSource(eq("Response"), eq(mCache));
     }
 
@@ -109,7 +123,7 @@ public class RepositoryTest {
         verify(mQueryStrategyMock, times(1)).readLocalSource(eq(mCache));
 
         // Verify network request
-        verify(mCallCollapserMock, times(1)).enqueue(eq(callMock), any(Callback.class));
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
         verify(mQueryStrategyMock, times(1)).consumeRemoteSource(eq("Response"), eq(mCache));
         verify(onSuccessMock, times(1)).accept(eq("Response"));
     }
@@ -134,7 +148,7 @@ public class RepositoryTest {
         verify(mQueryStrategyMock, times(1)).readLocalSource(eq(mCache));
 
         // Verify network request
-        verify(mCallCollapserMock, times(1)).enqueue(eq(callMock), any(Callback.class));
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
         verify(mQueryStrategyMock, times(0)).consumeRemoteSource(eq("Response"), eq(mCache));
         verify(onErrorMock, times(1)).accept(any(NetworkResourceException.class));
     }
@@ -160,7 +174,7 @@ public class RepositoryTest {
         verify(mQueryStrategyMock, times(1)).readLocalSource(eq(mCache));
 
         // Verify network request
-        verify(mCallCollapserMock, times(1)).enqueue(eq(callMock), any(Callback.class));
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
         verify(mQueryStrategyMock, times(0)).consumeRemoteSource(eq("Response"), eq(mCache));
         verify(onErrorMock, times(1)).accept(eq(exception));
     }
@@ -182,7 +196,7 @@ public class RepositoryTest {
         verify(mQueryStrategyMock, times(1)).readLocalSource(eq(mCache));
 
         // Verify network request
-        verify(mCallCollapserMock, times(1)).enqueue(eq(callMock), any(Callback.class));
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
         verify(mQueryStrategyMock, times(0)).consumeRemoteSource(eq("Response"), eq(mCache));
         verify(repositoryCallbackMock, times(1)).onError(eq(exception));
     }
@@ -224,7 +238,7 @@ public class RepositoryTest {
         verify(mQueryStrategyMock, times(0)).readLocalSource(eq(mCache));
 
         // Verify network request
-        verify(mCallCollapserMock, times(1)).enqueue(eq(callMock), any(Callback.class));
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
         verify(mQueryStrategyMock, times(1)).consumeRemoteSource(eq("Success"), eq(mCache));
         verify(onSuccessMock, times(1)).accept(eq("Success"));
     }
@@ -262,4 +276,535 @@ public class RepositoryTest {
         query.onError(onErrorMock).onSuccess(onSuccessMock);
         query.run();
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryAccessCacheStaleWhileRevalidate() {
+        Call<String> callMock = new RetrofitCallMockBuilder().buildSuccess("Response");
+
+        Consumer<Throwable> onErrorMock = mock(Consumer.class);
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+
+        // Cache status
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenReturn("CachedValue");
+
+        // Do things
+        Repository.Query<String> query = mRepository
+                .query(Repository.CACHE_STALE_WHILE_REVALIDATE, callMock, mQueryStrategyMock);
+        query.onError(onErrorMock).onSuccess(onSuccessMock);
+        query.run();
+
+        // Verify both the cached and the fresh data are notified, in order
+        InOrder inOrder = inOrder(onSuccessMock);
+        inOrder.verify(onSuccessMock, times(1)).accept(eq("CachedValue"));
+        inOrder.verify(onSuccessMock, times(1)).accept(eq("Response"));
+
+        // Verify network request
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
+        verify(mQueryStrategyMock, times(1)).consumeRemoteSource(eq("Response"), eq(mCache));
+        verify(onErrorMock, never()).accept(any(Throwable.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryAccessCacheStaleWhileRevalidateNetworkFail() {
+        Call<String> callMock = new RetrofitCallMockBuilder().buildFailure(new Exception());
+
+        Consumer<Throwable> onErrorMock = mock(Consumer.class);
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+
+        // Cache status
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenReturn("CachedValue");
+
+        // Do things
+        Repository.Query<String> query = mRepository
+                .query(Repository.CACHE_STALE_WHILE_REVALIDATE, callMock, mQueryStrategyMock);
+        query.onError(onErrorMock).onSuccess(onSuccessMock);
+        query.run();
+
+        // Verify the failed revalidation isn't notified
+        verify(onSuccessMock, times(1)).accept(eq("CachedValue"));
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
+        verify(onErrorMock, never()).accept(any(Throwable.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryWithExecutors() {
+        List<Runnable> ioTasks = new ArrayList<>();
+        List<Runnable> deliveryTasks = new ArrayList<>();
+        mRepository = new Repository<>(mCache, mCallCollapserMock, Repository.CACHE_FIRST,
+                ioTasks::add, deliveryTasks::add);
+        Call<String> callMock = new RetrofitCallMockBuilder().buildSuccess("Response");
+
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+
+        // Cache status
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenReturn(null);
+
+        // Do things
+        Repository.Query<String> query = mRepository.query(callMock, mQueryStrategyMock);
+        query.onSuccess(onSuccessMock);
+        query.run();
+
+        // Verify the cache is read on the I/O executor
+        verify(mQueryStrategyMock, never()).readLocalSource(eq(mCache));
+        ioTasks.remove(0).run();
+        verify(mQueryStrategyMock, times(1)).readLocalSource(eq(mCache));
+
+        // Verify the response is stored on the I/O executor
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
+        verify(mQueryStrategyMock, never()).consumeRemoteSource(eq("Response"), eq(mCache));
+        ioTasks.remove(0).run();
+        verify(mQueryStrategyMock, times(1)).consumeRemoteSource(eq("Response"), eq(mCache));
+
+        // Verify the result is notified on the delivery executor
+        verify(onSuccessMock, never()).accept(any(String.class));
+        deliveryTasks.remove(0).run();
+        verify(onSuccessMock, times(1)).accept(eq("Response"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryCollapsedConsumesResponseOnce() {
+        // Collapsed calls receive the same response
+        Response<String> response = Response.success("Response");
+        Call<String> callMock = new RetrofitCallMockBuilder<String>()
+                .build((call, callback) -> callback.onResponse(call, response));
+        Repository.QueryStrategy<String, String> otherQueryStrategyMock =
+                mock(Repository.QueryStrategy.class);
+
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+        Consumer<String> onChangeMock = mock(Consumer.class);
+        mRepository.observe("key", mQueryStrategyMock, onChangeMock);
+
+        // Do things, a new strategy is usually created for every query
+        mRepository.query(Repository.CACHE_NONE, callMock, mQueryStrategyMock)
+                .onSuccess(onSuccessMock).run();
+        mRepository.query(Repository.CACHE_NONE, callMock, mQueryStrategyMock)
+                .onSuccess(onSuccessMock).run();
+        mRepository.query("key", Repository.CACHE_NONE, callMock, otherQueryStrategyMock)
+                .onSuccess(onSuccessMock).run();
+
+        // Verify every query is notified but the response is consumed once
+        verify(onSuccessMock, times(3)).accept(eq("Response"));
+        verify(mQueryStrategyMock, times(1)).consumeRemoteSource(eq("Response"), eq(mCache));
+        verify(otherQueryStrategyMock, never()).consumeRemoteSource(any(String.class),
+                any(String.class));
+
+        // Verify the observers are notified even if the keyed query didn't consume it
+        verify(onChangeMock, times(1)).accept(eq("Response"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryWithKeyJoinsQueryInProgress() {
+        List<Runnable> ioTasks = new ArrayList<>();
+        mRepository = new Repository<>(mCache, mCallCollapserMock, Repository.CACHE_FIRST,
+                ioTasks::add, Runnable::run);
+        Call<String> firstCallMock = new RetrofitCallMockBuilder().buildSuccess("Response");
+        Call<String> secondCallMock = new RetrofitCallMockBuilder().buildSuccess("Response");
+
+        Consumer<String> firstOnSuccessMock = mock(Consumer.class);
+        Consumer<String> secondOnSuccessMock = mock(Consumer.class);
+
+        // Cache status
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenReturn(null);
+
+        // Do things, the second query runs while the first one reads the cache
+        mRepository.query("key", Repository.CACHE_FIRST, firstCallMock, mQueryStrategyMock)
+                .onSuccess(firstOnSuccessMock).run();
+        mRepository.query("key", Repository.CACHE_FIRST, secondCallMock, mQueryStrategyMock)
+                .onSuccess(secondOnSuccessMock).run();
+        while (!ioTasks.isEmpty()) ioTasks.remove(0).run();
+
+        // Verify a single cache read, request and cache write
+        verify(mQueryStrategyMock, times(1)).readLocalSource(eq(mCache));
+        verify(mCallCollapserMock, times(1)).subscribe(eq(firstCallMock), any(Callback.class));
+        verify(mCallCollapserMock, never()).subscribe(eq(secondCallMock), any(Callback.class));
+        verify(mQueryStrategyMock, times(1)).consumeRemoteSource(eq("Response"), eq(mCache));
+
+        // Verify both queries are notified
+        verify(firstOnSuccessMock, times(1)).accept(eq("Response"));
+        verify(secondOnSuccessMock, times(1)).accept(eq("Response"));
+
+        // Once completed, a new query with the same key runs on its own
+        mRepository.query("key", Repository.CACHE_FIRST, secondCallMock, mQueryStrategyMock)
+                .onSuccess(secondOnSuccessMock).run();
+        while (!ioTasks.isEmpty()) ioTasks.remove(0).run();
+        verify(mCallCollapserMock, times(1)).subscribe(eq(secondCallMock), any(Callback.class));
+        verify(secondOnSuccessMock, times(2)).accept(eq("Response"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryWithKeyCatchesUpInOrder() throws Exception {
+        List<Runnable> deliveryTasks = new ArrayList<>();
+        mRepository = new Repository<>(mCache, mCallCollapserMock, Repository.CACHE_FIRST,
+                Runnable::run, deliveryTasks::add);
+        List<Callback<String>> callbacks = new ArrayList<>();
+        Call<String> callMock = new RetrofitCallMockBuilder<String>()
+                .build((call, callback) -> callbacks.add(callback));
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenReturn("CachedValue");
+
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+        Runnable onCompleteMock = mock(Runnable.class);
+
+        // The first query notifies the cached data and the fresh data is waiting to be delivered
+        mRepository.query("key", Repository.CACHE_STALE_WHILE_REVALIDATE, callMock,
+                mQueryStrategyMock).run();
+        deliveryTasks.remove(0).run();
+        callbacks.get(0).onResponse(callMock, Response.success("Response"));
+
+        // Do things, the second query joins before the fresh data is delivered
+        Repository.Query<String> query = mRepository.query("key",
+                Repository.CACHE_STALE_WHILE_REVALIDATE, callMock, mQueryStrategyMock)
+                .onSuccess(onSuccessMock);
+        query.setCompleteAction(onCompleteMock);
+        query.run();
+        while (!deliveryTasks.isEmpty()) deliveryTasks.remove(0).run();
+
+        // Verify it catches up before being notified of the fresh data
+        InOrder inOrder = inOrder(onSuccessMock, onCompleteMock);
+        inOrder.verify(onSuccessMock).accept(eq("CachedValue"));
+        inOrder.verify(onSuccessMock).accept(eq("Response"));
+        inOrder.verify(onCompleteMock).run();
+        assertThat(query.future().get()).isEqualTo("Response");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryWithKeyCancelledByEveryQuery() {
+        Call<String> callMock = new RetrofitCallMockBuilder<String>().build((call, callback) -> {});
+        ICallSubscription subscriptionMock = mock(ICallSubscription.class);
+        when(mCallCollapserMock.subscribe(eq(callMock), any(Callback.class)))
+                .thenReturn(subscriptionMock);
+
+        // Do things
+        Repository.Query<String> firstQuery =
+                mRepository.query("key", Repository.CACHE_NONE, callMock, mQueryStrategyMock);
+        Repository.Query<String> secondQuery =
+                mRepository.query("key", Repository.CACHE_NONE, callMock, mQueryStrategyMock);
+        firstQuery.run();
+        secondQuery.run();
+
+        // Verify the request is released only when the last query leaves
+        firstQuery.cancel();
+        verify(subscriptionMock, never()).unsubscribe();
+        secondQuery.cancel();
+        verify(subscriptionMock, times(1)).unsubscribe();
+
+        // A new query with the same key runs on its own
+        mRepository.query("key", Repository.CACHE_NONE, callMock, mQueryStrategyMock).run();
+        verify(mCallCollapserMock, times(2)).subscribe(eq(callMock), any(Callback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryWithKeyJoinsFailingQuery() {
+        Exception exception = new Exception();
+        List<Runnable> ioTasks = new ArrayList<>();
+        mRepository = new Repository<>(mCache, mCallCollapserMock, Repository.CACHE_FIRST,
+                ioTasks::add, Runnable::run);
+        Call<String> callMock = new RetrofitCallMockBuilder().buildFailure(exception);
+
+        Consumer<Throwable> firstOnErrorMock = mock(Consumer.class);
+        Consumer<Throwable> secondOnErrorMock = mock(Consumer.class);
+
+        // Cache status
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenReturn(null);
+
+        // Do things
+        mRepository.query("key", Repository.CACHE_FIRST, callMock, mQueryStrategyMock)
+                .onError(firstOnErrorMock).run();
+        mRepository.query("key", Repository.CACHE_FIRST, mock(Call.class), mQueryStrategyMock)
+                .onError(secondOnErrorMock).run();
+        ioTasks.remove(0).run();
+
+        // Verify both queries are notified
+        verify(firstOnErrorMock, times(1)).accept(eq(exception));
+        verify(secondOnErrorMock, times(1)).accept(eq(exception));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryRevalidatesStaleData() throws Exception {
+        MemoryCache<String, String> memoryCache = new MemoryCache<>(10);
+        Repository<String, IKeyedCache<String, String>> repository =
+                new Repository<>(memoryCache, mCallCollapserMock);
+        ValidatorStore validatorStore = new ValidatorStore();
+        ConditionalQueryStrategy<String, String> queryStrategy =
+                new ConditionalQueryStrategy<>("key", validatorStore, 10);
+        Call<String> callMock = buildNotModified();
+
+        Consumer<Throwable> onErrorMock = mock(Consumer.class);
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+
+        // Cache status, the data is dirty
+        queryStrategy.consumeRemoteSource("CachedValue", memoryCache);
+        Thread.sleep(20);
+
+        // Do things
+        repository.query(Repository.CACHE_FIRST, callMock, queryStrategy)
+                .onError(onErrorMock).onSuccess(onSuccessMock).run();
+
+        // Verify the stale data is notified, and fresh again
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
+        verify(onSuccessMock, times(1)).accept(eq("CachedValue"));
+        verify(onErrorMock, never()).accept(any(Throwable.class));
+        assertThat(queryStrategy.readLocalSource(memoryCache)).isEqualTo("CachedValue");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryNotModifiedWithoutStaleData() {
+        Call<String> notModifiedCallMock = buildNotModified();
+        Call<String> cloneCallMock = new RetrofitCallMockBuilder().buildSuccess("Response");
+        when(notModifiedCallMock.clone()).thenReturn(cloneCallMock);
+
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+
+        // Cache status
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenReturn(null);
+
+        // Do things
+        mRepository.query(Repository.CACHE_FIRST, notModifiedCallMock, mQueryStrategyMock)
+                .onSuccess(onSuccessMock).run();
+
+        // Verify the request is made again
+        verify(mCallCollapserMock, times(1)).subscribe(eq(cloneCallMock), any(Callback.class));
+        verify(onSuccessMock, times(1)).accept(eq("Response"));
+    }
+
+    @Test
+    public void queryFuture() throws Exception {
+        Call<String> callMock = new RetrofitCallMockBuilder().buildSuccess("Response");
+        Call<String> errorCallMock = new RetrofitCallMockBuilder().buildError(500);
+
+        // Do things
+        Repository.Query<String> query = mRepository.query(Repository.CACHE_NONE, callMock,
+                mQueryStrategyMock);
+        Repository.Query<String> errorQuery = mRepository.query(Repository.CACHE_NONE,
+                errorCallMock, mQueryStrategyMock);
+        QueryFuture<Integer> lengthFuture = query.future().map(String::length);
+        query.run();
+        errorQuery.run();
+
+        // Verify the futures complete with the result of the queries
+        assertThat(query.future().get()).isEqualTo("Response");
+        assertThat(lengthFuture.get()).isEqualTo(8);
+        assertThatThrownBy(errorQuery.future()::get)
+                .hasCauseInstanceOf(NetworkResourceException.class);
+    }
+
+    @Test
+    public void queryFutureStaleWhileRevalidate() throws Exception {
+        Call<String> callMock = new RetrofitCallMockBuilder().buildSuccess("Response");
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenReturn("CachedValue");
+
+        // Do things
+        Repository.Query<String> query = mRepository.query(
+                Repository.CACHE_STALE_WHILE_REVALIDATE, callMock, mQueryStrategyMock);
+        query.run();
+
+        // Verify the future completes with the revalidated data
+        assertThat(query.future().get()).isEqualTo("Response");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryStrategyFailures() {
+        Call<String> callMock = new RetrofitCallMockBuilder().buildSuccess("Response");
+        IllegalStateException readException = new IllegalStateException("Corrupted cache");
+        IllegalStateException writeException = new IllegalStateException("Disk full");
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenThrow(readException);
+        doAnswer(invocation -> {
+            throw writeException;
+        }).when(mQueryStrategyMock).consumeRemoteSource(any(String.class), any(String.class));
+
+        Consumer<Throwable> onErrorMock = mock(Consumer.class);
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+
+        // Do things
+        Repository.Query<String> readQuery = mRepository.query(callMock, mQueryStrategyMock)
+                .onError(onErrorMock).onSuccess(onSuccessMock);
+        Repository.Query<String> writeQuery = mRepository.query(Repository.CACHE_NONE, callMock,
+                mQueryStrategyMock).onError(onErrorMock).onSuccess(onSuccessMock);
+        readQuery.run();
+        writeQuery.run();
+
+        // Verify the failures of the strategy complete the queries
+        verify(onErrorMock, times(1)).accept(eq(readException));
+        verify(onErrorMock, times(1)).accept(eq(writeException));
+        verify(onSuccessMock, never()).accept(any(String.class));
+        assertThatThrownBy(readQuery.future()::get).hasCause(readException);
+        assertThatThrownBy(writeQuery.future()::get).hasCause(writeException);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryCancel() {
+        Call<String> callMock = new RetrofitCallMockBuilder<String>().build((call, callback) -> {});
+        ICallSubscription subscriptionMock = mock(ICallSubscription.class);
+        when(mCallCollapserMock.subscribe(eq(callMock), any(Callback.class)))
+                .thenReturn(subscriptionMock);
+
+        Consumer<String> onSuccessMock = mock(Consumer.class);
+
+        // Do things
+        Repository.Query<String> query = mRepository.query(Repository.CACHE_NONE, callMock,
+                mQueryStrategyMock).onSuccess(onSuccessMock);
+        query.run();
+        query.cancel();
+
+        // Verify the request is released and nothing is notified
+        verify(subscriptionMock, times(1)).unsubscribe();
+        verify(onSuccessMock, never()).accept(any(String.class));
+        assertThat(query.isCancelled()).isTrue();
+        assertThat(query.future().isCancelled()).isTrue();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void observeKey() {
+        Consumer<String> onChangeMock = mock(Consumer.class);
+        Consumer<String> otherOnChangeMock = mock(Consumer.class);
+        when(mQueryStrategyMock.readLocalSource(any(String.class))).thenReturn("CachedValue");
+
+        // Do things
+        Repository.Observation observation =
+                mRepository.observe("key", mQueryStrategyMock, onChangeMock);
+        mRepository.observe("other", mQueryStrategyMock, otherOnChangeMock);
+        mRepository.query("key", Repository.CACHE_NONE,
+                new RetrofitCallMockBuilder().buildSuccess("Response"), mQueryStrategyMock).run();
+        mRepository.query(Repository.CACHE_NONE,
+                new RetrofitCallMockBuilder().buildSuccess("Unkeyed"), mQueryStrategyMock).run();
+
+        // Verify the cached value and the keyed write are notified, the unkeyed one isn't
+        InOrder inOrder = inOrder(onChangeMock);
+        inOrder.verify(onChangeMock).accept(eq("CachedValue"));
+        inOrder.verify(onChangeMock).accept(eq("Response"));
+        verify(onChangeMock, never()).accept(eq("Unkeyed"));
+        verify(otherOnChangeMock, never()).accept(eq("Response"));
+
+        // Nothing is notified after cancelling
+        observation.cancel();
+        mRepository.query("key", Repository.CACHE_NONE,
+                new RetrofitCallMockBuilder().buildSuccess("Later"), mQueryStrategyMock).run();
+        assertThat(observation.isCancelled()).isTrue();
+        verify(onChangeMock, never()).accept(eq("Later"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void observeKeyRevalidatedData() throws Exception {
+        MemoryCache<String, String> memoryCache = new MemoryCache<>(10);
+        Repository<String, IKeyedCache<String, String>> repository =
+                new Repository<>(memoryCache, mCallCollapserMock);
+        ConditionalQueryStrategy<String, String> queryStrategy =
+                new ConditionalQueryStrategy<>("key", new ValidatorStore(), 10);
+        Consumer<String> onChangeMock = mock(Consumer.class);
+
+        // Cache status, the data is dirty so observing it notifies nothing
+        queryStrategy.consumeRemoteSource("CachedValue", memoryCache);
+        Thread.sleep(20);
+        repository.observe("key", queryStrategy, onChangeMock);
+
+        // Do things
+        repository.query("key", Repository.CACHE_FIRST, buildNotModified(), queryStrategy).run();
+
+        // Verify the data confirmed by the server is notified
+        verify(onChangeMock, times(1)).accept(eq("CachedValue"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void observeKeyConflatesData() {
+        List<String> notifiedData = new ArrayList<>();
+
+        // Do things, new data is fetched while the consumer is busy with the first one
+        mRepository.observe("key", mQueryStrategyMock, data -> {
+            notifiedData.add(data);
+            if (!data.equals("First")) return;
+            for (String newData : new String[] { "Second", "Third" }) {
+                mRepository.query("key", Repository.CACHE_NONE,
+                        new RetrofitCallMockBuilder().buildSuccess(newData), mQueryStrategyMock)
+                        .run();
+            }
+        });
+        mRepository.query("key", Repository.CACHE_NONE,
+                new RetrofitCallMockBuilder().buildSuccess("First"), mQueryStrategyMock).run();
+
+        // Verify only the latest data is delivered after the first one
+        assertThat(notifiedData).containsExactly("First", "Third");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryWithNegativeCache() {
+        mRepository = new Repository<>(mCache, mCallCollapserMock, Repository.CACHE_NONE,
+                Runnable::run, Runnable::run, new NegativeCache());
+        Request request = new Request.Builder().url(RetrofitCallMockBuilder.DEFAULT_URL).build();
+        Call<String> callMock = new RetrofitCallMockBuilder().buildError(404);
+        Call<String> repeatedCallMock = new RetrofitCallMockBuilder().buildError(404);
+        when(callMock.request()).thenReturn(request);
+        when(repeatedCallMock.request()).thenReturn(request);
+
+        List<Throwable> errors = new ArrayList<>();
+
+        // Do things
+        mRepository.query(callMock, mQueryStrategyMock).onError(errors::add).run();
+        mRepository.query(repeatedCallMock, mQueryStrategyMock).onError(errors::add).run();
+
+        // Verify the repeated query fails without going to the network
+        verify(mCallCollapserMock, times(1)).subscribe(eq(callMock), any(Callback.class));
+        verify(mCallCollapserMock, never()).subscribe(eq(repeatedCallMock), any(Callback.class));
+        assertThat(errors).hasSize(2);
+        assertThat(((NetworkResourceException) errors.get(1)).getErrorCode()).isEqualTo(404);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryRevalidationWithNegativeCache() throws Exception {
+        MemoryCache<String, String> memoryCache = new MemoryCache<>(10);
+        Repository<String, IKeyedCache<String, String>> repository = new Repository<>(memoryCache,
+                mCallCollapserMock, Repository.CACHE_FIRST, Runnable::run, Runnable::run,
+                new NegativeCache());
+        ValidatorStore validatorStore = new ValidatorStore();
+        ConditionalQueryStrategy<String, String> queryStrategy =
+                new ConditionalQueryStrategy<>("key", validatorStore, 10);
+        Request request = new Request.Builder().url(RetrofitCallMockBuilder.DEFAULT_URL).build();
+        Call<String> callMock = new RetrofitCallMockBuilder().buildError(404);
+        Request repeatedRequest = request.newBuilder().build();
+        Call<String> repeatedCallMock = new RetrofitCallMockBuilder().buildError(404);
+        when(callMock.request()).thenReturn(request);
+        when(repeatedCallMock.request()).thenReturn(repeatedRequest);
+
+        // Cache status, the data is dirty and the URL has validators
+        validatorStore.update(new okhttp3.Response.Builder().request(request)
+                .protocol(Protocol.HTTP_1_1).code(200).message("OK").header("ETag", "\"v1\"")
+                .build());
+        queryStrategy.consumeRemoteSource("CachedValue", memoryCache);
+        Thread.sleep(20);
+
+        // Do things
+        repository.query(callMock, queryStrategy).run();
+        repository.query(repeatedCallMock, queryStrategy).run();
+
+        // Verify the request that isn't made is left unarmed
+        verify(mCallCollapserMock, never()).subscribe(eq(repeatedCallMock), any(Callback.class));
+        assertThat(validatorStore.isArmed(repeatedRequest)).isFalse();
+    }
+
+    private Call<String> buildNotModified() {
+        return new RetrofitCallMockBuilder<String>().build((call, callback) -> {
+            okhttp3.Response rawResponse = new okhttp3.Response.Builder()
+                    .request(new Request.Builder().url(RetrofitCallMockBuilder.DEFAULT_URL).build())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(HttpURLConnection.HTTP_NOT_MODIFIED)
+                    .message("Not Modified")
+                    .build();
+            callback.onResponse(call, Response.error(mock(ResponseBody.class), rawResponse));
+        });
+    }
 }
@@ -23,6 +23,8 @@ package ar.com.wolox.wolmo.networking.offline;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -32,29 +34,18 @@ import androidx.annotation.NonNull;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.concurrent.TimeUnit;
+
 public class TimeResolveQueryStrategyTest {
 
     private static final int REFRESH_DELTA = 10;
+    private static final int LONG_REFRESH_DELTA = 200;
 
     private TimeResolveQueryStrategy<String, String> mTimeResolveQueryStrategySpy;
 
     @Before
     public void beforeTest() {
-        mTimeResolveQueryStrategySpy = spy(new TimeResolveQueryStrategy<String, String>(REFRESH_DELTA) {
-
-            @Override
-            public void invalidate(@NonNull String cache) {
-            }
-
-            @Override
-            public String cleanReadLocalSource(@NonNull String cache) {
-                return "CleanRead";
-            }
-
-            @Override
-            public void refresh(@NonNull String data, @NonNull String cache) {
-            }
-        });
+        mTimeResolveQueryStrategySpy = buildStrategySpy(REFRESH_DELTA);
     }
 
     @Test
@@ -79,4 +70,60 @@ public class TimeResolveQueryStrategyTest {
         verify(mTimeResolveQueryStrategySpy, times(1)).invalidate(eq("Cache"));
         verify(mTimeResolveQueryStrategySpy, times(1)).cleanReadLocalSource(eq("Cache"));
     }
+
+    @Test
+    public void refreshWithJitter() {
+        TimeResolveQueryStrategy<String, String> queryStrategy =
+                buildStrategySpy(LONG_REFRESH_DELTA);
+        queryStrategy.setRefreshJitter(0.5);
+        doReturn(0.9).when(queryStrategy).random();
+
+        queryStrategy.consumeRemoteSource("Data", "RemoteCache");
+
+        // The refresh delta is cut by 0.5 * 0.9 of it
+        long remaining = TimeUnit.NANOSECONDS.toMillis(queryStrategy.getRemainingFreshnessInNanos());
+        assertThat(remaining).isBetween(LONG_REFRESH_DELTA / 2L, 110L);
+    }
+
+    @Test
+    public void cacheReadEarlyRefresh() throws Exception {
+        TimeResolveQueryStrategy<String, String> queryStrategy =
+                buildStrategySpy(LONG_REFRESH_DELTA);
+        queryStrategy.setEarlyRefreshBeta(1);
+
+        // Fetch the remote source, taking a while
+        doReturn(null).when(queryStrategy).cleanReadLocalSource(eq("Cache"));
+        assertThat(queryStrategy.readLocalSource("Cache")).isNull();
+        Thread.sleep(REFRESH_DELTA * 2);
+        queryStrategy.consumeRemoteSource("Data", "RemoteCache");
+        doReturn("CleanRead").when(queryStrategy).cleanReadLocalSource(eq("Cache"));
+
+        // An unlikely draw keeps the clean data
+        doReturn(0.0).when(queryStrategy).random();
+        assertThat(queryStrategy.readLocalSource("Cache")).isEqualTo("CleanRead");
+        verify(queryStrategy, never()).invalidate(eq("Cache"));
+
+        // A likely draw refreshes it before its expiry
+        doReturn(0.9999999999).when(queryStrategy).random();
+        assertThat(queryStrategy.readLocalSource("Cache")).isNull();
+        verify(queryStrategy, times(1)).invalidate(eq("Cache"));
+    }
+
+    private TimeResolveQueryStrategy<String, String> buildStrategySpy(int refreshDelta) {
+        return spy(new TimeResolveQueryStrategy<String, String>(refreshDelta) {
+
+            @Override
+            public void invalidate(@NonNull String cache) {
+            }
+
+            @Override
+            public String cleanReadLocalSource(@NonNull String cache) {
+                return "CleanRead";
+            }
+
+            @Override
+            public void refresh(@NonNull String data, @NonNull String cache) {
+            }
+        });
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.offline;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TwoTierQueryStrategyTest {
+
+    private MemoryCache<String, String> mFirstTier;
+    private MemoryCache<String, String> mSecondTier;
+    private TwoTierQueryStrategy.Tiers<IKeyedCache<String, String>, IKeyedCache<String, String>>
+            mTiers;
+    private TwoTierQueryStrategy<String, IKeyedCache<String, String>,
+            IKeyedCache<String, String>> mQueryStrategy;
+
+    @Before
+    public void beforeTest() {
+        mFirstTier = new MemoryCache<>(10);
+        mSecondTier = new MemoryCache<>(10);
+        mTiers = new TwoTierQueryStrategy.Tiers<>(mFirstTier, mSecondTier);
+        mQueryStrategy = new TwoTierQueryStrategy<>(new KeyedTimeResolveQueryStrategy<>("key"),
+                new KeyedTimeResolveQueryStrategy<>("key"));
+    }
+
+    @Test
+    public void readFirstTier() {
+        mFirstTier.put("key", "First");
+        mSecondTier.put("key", "Second");
+
+        assertThat(mQueryStrategy.readLocalSource(mTiers)).isEqualTo("First");
+        assertThat(mQueryStrategy.getFirstTierHitCount()).isEqualTo(1);
+        assertThat(mSecondTier.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void readSecondTierPromotes() {
+        mSecondTier.put("key", "Second");
+
+        assertThat(mQueryStrategy.readLocalSource(mTiers)).isEqualTo("Second");
+        assertThat(mFirstTier.get("key")).isEqualTo("Second");
+        assertThat(mQueryStrategy.getSecondTierHitCount()).isEqualTo(1);
+
+        // The next read is served by the first tier
+        assertThat(mQueryStrategy.readLocalSource(mTiers)).isEqualTo("Second");
+        assertThat(mQueryStrategy.getFirstTierHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void readMiss() {
+        assertThat(mQueryStrategy.readLocalSource(mTiers)).isNull();
+        assertThat(mQueryStrategy.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void consumeRemoteSourceWritesThrough() {
+        mQueryStrategy.consumeRemoteSource("Remote", mTiers);
+
+        assertThat(mFirstTier.get("key")).isEqualTo("Remote");
+        assertThat(mSecondTier.get("key")).isEqualTo("Remote");
+    }
+
+    @Test
+    public void consumeRemoteSourceWritesBack() {
+        List<Runnable> pendingWrites = new ArrayList<>();
+        mQueryStrategy = new TwoTierQueryStrategy<>(new KeyedTimeResolveQueryStrategy<>("key"),
+                new KeyedTimeResolveQueryStrategy<>("key"), pendingWrites::add);
+
+        mQueryStrategy.consumeRemoteSource("Remote", mTiers);
+        assertThat(mFirstTier.get("key")).isEqualTo("Remote");
+        assertThat(mSecondTier.get("key")).isNull();
+
+        // The second tier is written by the executor
+        pendingWrites.get(0).run();
+        assertThat(mSecondTier.get("key")).isEqualTo("Remote");
+    }
+}
@@ -23,14 +23,19 @@ package ar.com.wolox.wolmo.networking.optimizations;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import androidx.annotation.NonNull;
 
+import ar.com.wolox.wolmo.networking.exception.CollapsedCallTimeoutException;
 import ar.com.wolox.wolmo.networking.test_utils.RetrofitCallMockBuilder;
 import ar.com.wolox.wolmo.networking.test_utils.service.RetrofitTestService;
 
@@ -40,14 +45,21 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
 import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
@@ -108,7 +120,8 @@ public class BaseCallCollapserTest {
 
         // Verify that both callbacks get called
         ArgumentCaptor<Response<String>> responseCaptor = ArgumentCaptor.forClass(Response.class);
-        verify(callbackMock, times(2)).onResponse(eq(callMock), responseCaptor.capture());
+        verify(callbackMock, timeout(1000).times(2))
+                .onResponse(eq(callMock), responseCaptor.capture());
         assertThat(responseCaptor.getValue().body()).isEqualTo("Hello First");
     }
 
@@ -179,4 +192,501 @@ public class BaseCallCollapserTest {
         verify(postCallbackSpy, times(1)).onResponse(eq(postCallMock), responseCaptor2.capture());
         assertThat(responseCaptor2.getValue().body()).isEqualTo("Hello POST");
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueConcurrentGetCalls() throws Exception {
+        final int callers = 16;
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Hello Concurrent\"")
+                .setBodyDelay(500, TimeUnit.MILLISECONDS));
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        RetrofitTestService service = mRetrofit.create(RetrofitTestService.class);
+        CountDownLatch startLatch = new CountDownLatch(1);
+
+        // Enqueue the same GET request from several threads at the same time
+        for (int i = 0; i < callers; i++) {
+            Call<String> call = service.retrofitGetMethodString();
+            new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException ignored) {}
+                mBaseCallCollapser.enqueue(call, callbackSpy);
+            }).start();
+        }
+        startLatch.countDown();
+
+        // Wait for every callback and verify a single server call
+        assertThat(mSemaphore.tryAcquire(callers, 5, TimeUnit.SECONDS)).isTrue();
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(1);
+        verify(callbackSpy, times(callers)).onResponse(any(Call.class), any(Response.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueDifferentGetCallsForSameRequest() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Hello Query\"")
+                .setBodyDelay(200, TimeUnit.MILLISECONDS));
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        RetrofitTestService service = mRetrofit.create(RetrofitTestService.class);
+        Call<String> firstCall = service.retrofitGetMethodString("a", "b");
+        Call<String> secondCall = service.retrofitGetMethodString("a", "b");
+
+        mBaseCallCollapser.enqueue(firstCall, callbackSpy);
+        mBaseCallCollapser.enqueue(secondCall, callbackSpy);
+
+        // Each callback receives its own call
+        mSemaphore.acquire(2);
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(1);
+        verify(callbackSpy, times(1)).onResponse(eq(firstCall), any(Response.class));
+        verify(callbackSpy, times(1)).onResponse(eq(secondCall), any(Response.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueGetCallInsideReplayWindow() throws Exception {
+        mBaseCallCollapser = new BaseCallCollapser.Builder()
+                .replayWindow(300, TimeUnit.MILLISECONDS).build();
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Hello First\""));
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Hello Second\""));
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        RetrofitTestService service = mRetrofit.create(RetrofitTestService.class);
+
+        // The second call arrives after the first one completed
+        mBaseCallCollapser.enqueue(service.retrofitGetMethodString(), callbackSpy);
+        mSemaphore.acquire();
+        Call<String> lateCall = service.retrofitGetMethodString();
+        mBaseCallCollapser.enqueue(lateCall, callbackSpy);
+        mSemaphore.acquire();
+
+        // Verify the response was replayed
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(1);
+        ArgumentCaptor<Response<String>> responseCaptor = ArgumentCaptor.forClass(Response.class);
+        verify(callbackSpy, times(1)).onResponse(eq(lateCall), responseCaptor.capture());
+        assertThat(responseCaptor.getValue().body()).isEqualTo("Hello First");
+
+        // Once the window passes the request goes to the network
+        Thread.sleep(400);
+        mBaseCallCollapser.enqueue(service.retrofitGetMethodString(), callbackSpy);
+        mSemaphore.acquire();
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueIdempotentPostCalls() throws Exception {
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody("\"Hello Search\"")
+                        .setBodyDelay(200, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        RetrofitTestService service = mRetrofit.create(RetrofitTestService.class);
+
+        // Two identical queries and a different one
+        mBaseCallCollapser.enqueue(service.retrofitIdempotentPostMethodString("a"), callbackSpy);
+        mBaseCallCollapser.enqueue(service.retrofitIdempotentPostMethodString("a"), callbackSpy);
+        mBaseCallCollapser.enqueue(service.retrofitIdempotentPostMethodString("b"), callbackSpy);
+
+        // Verify only the identical ones were collapsed
+        mSemaphore.acquire(3);
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(2);
+        verify(callbackSpy, times(3)).onResponse(any(Call.class), any(Response.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void unsubscribeOneOfCollapsedCalls() throws Exception {
+        Callback<String> firstCallbackSpy = spy(mCallbackBase);
+        Callback<String> secondCallbackSpy = spy(mCallbackBase);
+        Call<String> callMock = new RetrofitCallMockBuilder()
+                .runBefore(300, TimeUnit.MILLISECONDS)
+                .buildSuccess("Success");
+
+        ICallSubscription firstSubscription =
+                mBaseCallCollapser.subscribe(callMock, firstCallbackSpy);
+        mBaseCallCollapser.enqueue(callMock, secondCallbackSpy);
+        firstSubscription.unsubscribe();
+
+        // Verify the call keeps running for the remaining callback
+        mSemaphore.acquire();
+        assertThat(firstSubscription.isUnsubscribed()).isTrue();
+        verify(callMock, never()).cancel();
+        verify(firstCallbackSpy, never()).onResponse(any(Call.class), any(Response.class));
+        verify(secondCallbackSpy, times(1)).onResponse(eq(callMock), any(Response.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void unsubscribeEveryCollapsedCall() throws Exception {
+        Callback<String> callbackMock = mock(Callback.class);
+        Call<String> callMock = new RetrofitCallMockBuilder()
+                .runBefore(300, TimeUnit.MILLISECONDS)
+                .buildSuccess("Success");
+
+        ICallSubscription firstSubscription = mBaseCallCollapser.subscribe(callMock, callbackMock);
+        ICallSubscription secondSubscription = mBaseCallCollapser.subscribe(callMock, callbackMock);
+        firstSubscription.unsubscribe();
+        secondSubscription.unsubscribe();
+
+        // Verify the call is cancelled and nobody gets notified
+        verify(callMock, times(1)).cancel();
+        Thread.sleep(500);
+        verify(callbackMock, never()).onResponse(any(Call.class), any(Response.class));
+        verify(callbackMock, never()).onFailure(any(Call.class), any(Throwable.class));
+
+        // A new subscriber starts a new call
+        mBaseCallCollapser.enqueue(callMock, mCallbackBase);
+        verify(callMock, times(2)).enqueue(any(Callback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void unsubscribeNotCollapsedCall() {
+        Callback<String> callbackMock = mock(Callback.class);
+        Call<String> callMock = new RetrofitCallMockBuilder()
+                .setHttpMethod(RetrofitCallMockBuilder.HTTP_METHOD_POST)
+                .runBefore(300, TimeUnit.MILLISECONDS)
+                .buildSuccess("Success");
+
+        mBaseCallCollapser.subscribe(callMock, callbackMock).unsubscribe();
+
+        verify(callMock, times(1)).cancel();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueReportsToListener() throws Exception {
+        ICallCollapserListener listenerMock = mock(ICallCollapserListener.class);
+        mBaseCallCollapser = new BaseCallCollapser.Builder().listener(listenerMock).build();
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        Call<String> callMock = new RetrofitCallMockBuilder()
+                .runBefore(200, TimeUnit.MILLISECONDS)
+                .buildSuccess("Success");
+
+        mBaseCallCollapser.enqueue(callMock, callbackSpy);
+        mBaseCallCollapser.enqueue(callMock, callbackSpy);
+        mBaseCallCollapser.enqueue(callMock, callbackSpy);
+        assertThat(mBaseCallCollapser.getInFlightCount()).isEqualTo(1);
+
+        // Verify the listener saw one request sent and two collapsed
+        mSemaphore.acquire(3);
+        verify(listenerMock, times(1)).onCallOriginated(eq(callMock.request()));
+        verify(listenerMock, times(2)).onCallCollapsed(eq(callMock.request()));
+        verify(listenerMock, times(3)).onSubscriberNotified(eq(callMock.request()), anyLong());
+        verify(listenerMock, timeout(1000).times(1))
+                .onFlightCompleted(eq(callMock.request()), eq(3), anyLong());
+        assertThat(mBaseCallCollapser.getInFlightCount()).isEqualTo(0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueGetCallWithErrorBody() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(404).setBody("Not Found")
+                .setBodyDelay(200, TimeUnit.MILLISECONDS));
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        RetrofitTestService service = mRetrofit.create(RetrofitTestService.class);
+
+        mBaseCallCollapser.enqueue(service.retrofitGetMethodString(), callbackSpy);
+        mBaseCallCollapser.enqueue(service.retrofitGetMethodString(), callbackSpy);
+
+        // Verify every callback can read the whole error body
+        mSemaphore.acquire(2);
+        ArgumentCaptor<Response<String>> responseCaptor = ArgumentCaptor.forClass(Response.class);
+        verify(callbackSpy, times(2)).onResponse(any(Call.class), responseCaptor.capture());
+        for (Response<String> response : responseCaptor.getAllValues()) {
+            assertThat(response.code()).isEqualTo(404);
+            assertThat(response.errorBody().string()).isEqualTo("Not Found");
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueEvictsStuckCalls() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        mBaseCallCollapser = new BaseCallCollapser.Builder()
+                .flightTimeout(100, TimeUnit.MILLISECONDS).build();
+        ExecutorService callbackExecutor =
+                Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "Callbacks"));
+        RetrofitTestService service = mRetrofit.newBuilder().callbackExecutor(callbackExecutor)
+                .build().create(RetrofitTestService.class);
+
+        List<String> threadNames = new CopyOnWriteArrayList<>();
+        Callback<String> callbackSpy = spy(new Callback<String>() {
+            @Override
+            public void onResponse(@NonNull Call<String> call, @NonNull Response<String> response) {
+                mSemaphore.release();
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<String> call, @NonNull Throwable t) {
+                threadNames.add(Thread.currentThread().getName());
+                mSemaphore.release();
+            }
+        });
+        mBaseCallCollapser.enqueue(service.retrofitGetMethodString(), callbackSpy);
+        mBaseCallCollapser.enqueue(service.retrofitGetMethodString(), callbackSpy);
+
+        // Verify both callbacks fail once the flight is evicted, where Retrofit delivers results
+        assertThat(mSemaphore.tryAcquire(2, 5, TimeUnit.SECONDS)).isTrue();
+        verify(callbackSpy, times(2))
+                .onFailure(any(Call.class), any(CollapsedCallTimeoutException.class));
+        assertThat(threadNames).containsExactly("Callbacks", "Callbacks");
+        assertThat(mBaseCallCollapser.getEvictedCount()).isEqualTo(1);
+        assertThat(mBaseCallCollapser.getInFlightCount()).isEqualTo(0);
+        callbackExecutor.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueWithoutTimeoutByDefault() throws Exception {
+        Call<String> slowCallMock = new RetrofitCallMockBuilder()
+                .runBefore(300, TimeUnit.MILLISECONDS)
+                .buildSuccess("Success");
+        Callback<String> callbackSpy = spy(mCallbackBase);
+
+        mBaseCallCollapser.enqueue(slowCallMock, callbackSpy);
+
+        assertThat(mSemaphore.tryAcquire(1, TimeUnit.SECONDS)).isTrue();
+        verify(callbackSpy, times(1)).onResponse(eq(slowCallMock), any(Response.class));
+        verify(slowCallMock, never()).cancel();
+        assertThat(mBaseCallCollapser.getEvictedCount()).isEqualTo(0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void closeStopsCollapsing() throws Exception {
+        mBaseCallCollapser = new BaseCallCollapser.Builder()
+                .flightTimeout(100, TimeUnit.MILLISECONDS).build();
+        Call<String> firstCallMock = new RetrofitCallMockBuilder()
+                .runBefore(300, TimeUnit.MILLISECONDS)
+                .buildSuccess("Success");
+        Call<String> secondCallMock = new RetrofitCallMockBuilder().buildSuccess("Success");
+
+        mBaseCallCollapser.enqueue(firstCallMock, mCallbackBase);
+        mBaseCallCollapser.close();
+        mBaseCallCollapser.enqueue(secondCallMock, mCallbackBase);
+        mBaseCallCollapser.enqueue(secondCallMock, mCallbackBase);
+
+        // The flight in progress completes without being evicted, later calls aren't collapsed
+        assertThat(mSemaphore.tryAcquire(3, 1, TimeUnit.SECONDS)).isTrue();
+        verify(firstCallMock, never()).cancel();
+        verify(secondCallMock, times(2)).enqueue(any(Callback.class));
+        assertThat(mBaseCallCollapser.getEvictedCount()).isEqualTo(0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueBypassesFullRegistry() {
+        mBaseCallCollapser = new BaseCallCollapser.Builder().maxInFlight(1).build();
+
+        Call<String> firstCallMock = new RetrofitCallMockBuilder().build((call, callback) -> {});
+        Call<String> secondCallMock = new RetrofitCallMockBuilder()
+                .setUrl("http://test.com/other").build((call, callback) -> {});
+
+        mBaseCallCollapser.enqueue(firstCallMock, mCallbackBase);
+        mBaseCallCollapser.enqueue(secondCallMock, mCallbackBase);
+        mBaseCallCollapser.enqueue(secondCallMock, mCallbackBase);
+
+        // The second request can't be registered, so it isn't collapsed
+        assertThat(mBaseCallCollapser.getInFlightCount()).isEqualTo(1);
+        verify(secondCallMock, times(2)).enqueue(any(Callback.class));
+    }
+
+    @Test
+    public void executeConcurrentGetCalls() throws Exception {
+        final int callers = 8;
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Hello Blocking\"")
+                .setBodyDelay(300, TimeUnit.MILLISECONDS));
+
+        RetrofitTestService service = mRetrofit.create(RetrofitTestService.class);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        Semaphore bodies = new Semaphore(0);
+
+        // Execute the same GET request from several threads at the same time
+        for (int i = 0; i < callers; i++) {
+            Call<String> call = service.retrofitGetMethodString();
+            new Thread(() -> {
+                try {
+                    startLatch.await();
+                    Response<String> response = mBaseCallCollapser.execute(call);
+                    if ("Hello Blocking".equals(response.body())) bodies.release();
+                } catch (InterruptedException | IOException ignored) {}
+            }).start();
+        }
+        startLatch.countDown();
+
+        // Every caller gets the body of a single server call
+        assertThat(bodies.tryAcquire(callers, 5, TimeUnit.SECONDS)).isTrue();
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void executeSharesResultWithEnqueuedCalls() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Hello Shared\"")
+                .setBodyDelay(300, TimeUnit.MILLISECONDS));
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        RetrofitTestService service = mRetrofit.create(RetrofitTestService.class);
+        Call<String> enqueuedCall = spy(service.retrofitGetMethodString());
+        Call<String> executedCall = spy(service.retrofitGetMethodString());
+
+        // The blocking caller joins the enqueued one
+        mBaseCallCollapser.enqueue(enqueuedCall, callbackSpy);
+        Response<String> response = mBaseCallCollapser.execute(executedCall);
+
+        assertThat(response.body()).isEqualTo("Hello Shared");
+        assertThat(mSemaphore.tryAcquire(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(1);
+        verify(executedCall, never()).execute();
+        verify(callbackSpy, times(1)).onResponse(eq(enqueuedCall), any(Response.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueDoesNotJoinExecutedCalls() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Hello Blocking\"")
+                .setBodyDelay(300, TimeUnit.MILLISECONDS));
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Hello Enqueued\""));
+        ExecutorService callbackExecutor =
+                Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "Callbacks"));
+        RetrofitTestService service = mRetrofit.newBuilder().callbackExecutor(callbackExecutor)
+                .build().create(RetrofitTestService.class);
+
+        // The blocking caller starts the request on its own thread
+        CountDownLatch executedLatch = new CountDownLatch(1);
+        Thread blockingThread = new Thread(() -> {
+            try {
+                mBaseCallCollapser.execute(service.retrofitGetMethodString());
+            } catch (IOException ignored) {
+            } finally {
+                executedLatch.countDown();
+            }
+        }, "Blocking");
+        blockingThread.start();
+        while (mBaseCallCollapser.getInFlightCount() == 0) Thread.sleep(10);
+
+        List<String> threadNames = new CopyOnWriteArrayList<>();
+        mBaseCallCollapser.enqueue(service.retrofitGetMethodString(), new Callback<String>() {
+            @Override
+            public void onResponse(@NonNull Call<String> call, @NonNull Response<String> response) {
+                threadNames.add(Thread.currentThread().getName());
+                mSemaphore.release();
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<String> call, @NonNull Throwable t) {
+                mSemaphore.release();
+            }
+        });
+
+        // Verify the enqueued caller is notified by Retrofit, not by the blocking thread
+        assertThat(mSemaphore.tryAcquire(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(executedLatch.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(threadNames).containsExactly("Callbacks");
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(2);
+        callbackExecutor.shutdown();
+    }
+
+    @Test
+    public void executeFailingPostCall() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(500));
+
+        Call<String> postCall =
+                spy(mRetrofit.create(RetrofitTestService.class).retrofitPostMethodString());
+
+        // POST calls are executed as they are
+        Response<String> response = mBaseCallCollapser.execute(postCall);
+
+        assertThat(response.isSuccessful()).isFalse();
+        assertThat(response.code()).isEqualTo(500);
+        verify(postCall, times(1)).execute();
+        assertThat(mBaseCallCollapser.getInFlightCount()).isEqualTo(0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueuePromotesScheduledCall() {
+        mBaseCallCollapser = new BaseCallCollapser.Builder()
+                .scheduler(new CallScheduler(2)).build();
+
+        Call<String> runningCallMock = mock(Call.class);
+        when(runningCallMock.request())
+                .thenReturn(new Request.Builder().url("http://test.com/running").build());
+        Call<String> waitingCallMock = mock(Call.class);
+        when(waitingCallMock.request())
+                .thenReturn(new Request.Builder().url("http://test.com/waiting").build());
+
+        // The second prefetch waits, the last slot is kept for higher priorities
+        mBaseCallCollapser.subscribe(runningCallMock, mCallbackBase,
+                CallScheduler.PRIORITY_PREFETCH);
+        mBaseCallCollapser.subscribe(waitingCallMock, mCallbackBase,
+                CallScheduler.PRIORITY_PREFETCH);
+        verify(waitingCallMock, never()).enqueue(any(Callback.class));
+
+        // A user blocking caller collapses onto it and promotes it
+        mBaseCallCollapser.subscribe(waitingCallMock, mCallbackBase,
+                CallScheduler.PRIORITY_USER_BLOCKING);
+        verify(waitingCallMock, times(1)).enqueue(any(Callback.class));
+        assertThat(mBaseCallCollapser.getInFlightCount()).isEqualTo(2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void unsubscribeRemovesScheduledCall() {
+        CallScheduler scheduler = new CallScheduler(1);
+        mBaseCallCollapser = new BaseCallCollapser.Builder().scheduler(scheduler).build();
+
+        Call<String> runningCallMock = mock(Call.class);
+        when(runningCallMock.request())
+                .thenReturn(new Request.Builder().url("http://test.com/running").build());
+        Call<String> waitingCallMock = mock(Call.class);
+        when(waitingCallMock.request())
+                .thenReturn(new Request.Builder().url("http://test.com/waiting").build());
+
+        // The host is saturated, so the second call waits in the scheduler
+        mBaseCallCollapser.subscribe(runningCallMock, mCallbackBase,
+                CallScheduler.PRIORITY_NORMAL);
+        ICallSubscription subscription = mBaseCallCollapser.subscribe(waitingCallMock,
+                mCallbackBase, CallScheduler.PRIORITY_NORMAL);
+        assertThat(scheduler.getWaitingCount()).isEqualTo(1);
+
+        // Its only subscriber leaves, so it's cancelled and never sent
+        subscription.unsubscribe();
+        assertThat(scheduler.getWaitingCount()).isEqualTo(0);
+        assertThat(mBaseCallCollapser.getInFlightCount()).isEqualTo(1);
+        verify(waitingCallMock, times(1)).cancel();
+        verify(waitingCallMock, never()).enqueue(any(Callback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flightTimeoutStartsWhenScheduledCallIsSent() throws Exception {
+        CallScheduler scheduler = new CallScheduler(1);
+        mBaseCallCollapser = new BaseCallCollapser.Builder().scheduler(scheduler)
+                .flightTimeout(100, TimeUnit.MILLISECONDS).build();
+
+        Call<String> runningCallMock = new RetrofitCallMockBuilder()
+                .setUrl("http://test.com/running").build((call, callback) -> {});
+        Call<String> waitingCallMock = new RetrofitCallMockBuilder()
+                .setUrl("http://test.com/waiting").build((call, callback) -> {});
+
+        mBaseCallCollapser.enqueue(runningCallMock, mCallbackBase);
+        mBaseCallCollapser.enqueue(waitingCallMock, mCallbackBase);
+        Thread.sleep(300);
+
+        // Only the call that was sent is evicted, the other one is still waiting for its turn
+        assertThat(mBaseCallCollapser.getEvictedCount()).isEqualTo(1);
+        verify(runningCallMock, times(1)).cancel();
+        verify(waitingCallMock, never()).cancel();
+        assertThat(scheduler.getWaitingCount()).isEqualTo(1);
+    }
 }
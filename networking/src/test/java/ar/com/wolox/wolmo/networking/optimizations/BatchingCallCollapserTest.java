@@ -0,0 +1,310 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import ar.com.wolox.wolmo.networking.test_utils.service.RetrofitTestService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+public class BatchingCallCollapserTest {
+
+    private static final String ITEMS_PATH = "/api/items/";
+
+    private BatchingCallCollapser mBatchingCallCollapser;
+    private MockWebServer mMockWebServer;
+    private RetrofitTestService mService;
+
+    private Semaphore mSemaphore;
+    private Callback<String> mCallbackBase;
+
+    @Before
+    public void beforeTest() throws IOException {
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.start();
+        mService = new Retrofit.Builder().baseUrl(mMockWebServer.url(""))
+                .addConverterFactory(GsonConverterFactory.create()).client(new OkHttpClient())
+                .build().create(RetrofitTestService.class);
+
+        mBatchingCallCollapser = new BatchingCallCollapser(new BaseCallCollapser(), 50,
+                TimeUnit.MILLISECONDS, 3).register(new IBatchStrategy<Map<String, String>>() {
+                    @Nullable
+                    @Override
+                    public String extractId(@NonNull Request request) {
+                        String path = request.url().encodedPath();
+                        return path.startsWith(ITEMS_PATH) ? path.substring(ITEMS_PATH.length())
+                                : null;
+                    }
+
+                    @NonNull
+                    @Override
+                    public Call<Map<String, String>> createBatchCall(@NonNull List<String> ids) {
+                        StringBuilder joinedIds = new StringBuilder();
+                        for (String id : ids) {
+                            if (joinedIds.length() > 0) joinedIds.append(',');
+                            joinedIds.append(id);
+                        }
+                        return mService.retrofitGetItems(joinedIds.toString());
+                    }
+
+                    @Nullable
+                    @Override
+                    public Object extractItem(@NonNull Map<String, String> batch,
+                                              @NonNull String id) {
+                        return batch.get(id);
+                    }
+                });
+
+        mSemaphore = new Semaphore(0);
+        mCallbackBase = new Callback<String>() {
+            @Override
+            public void onResponse(@NonNull Call<String> call, @NonNull Response<String> response) {
+                mSemaphore.release();
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<String> call, @NonNull Throwable t) {
+                mSemaphore.release();
+            }
+        };
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueBatchesCalls() throws Exception {
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/api/items?ids=1%2C2")) {
+                    return new MockResponse().setBody("{\"1\":\"One\",\"2\":\"Two\"}");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        Call<String> firstCall = mService.retrofitGetItem("1");
+        Call<String> secondCall = mService.retrofitGetItem("2");
+
+        mBatchingCallCollapser.enqueue(firstCall, callbackSpy);
+        mBatchingCallCollapser.enqueue(secondCall, callbackSpy);
+
+        // Verify a single bulk request was made
+        mSemaphore.acquire(2);
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(1);
+
+        // Verify each callback got its own item
+        ArgumentCaptor<Response<String>> responseCaptor = ArgumentCaptor.forClass(Response.class);
+        verify(callbackSpy, times(1)).onResponse(eq(firstCall), responseCaptor.capture());
+        assertThat(responseCaptor.getValue().body()).isEqualTo("One");
+        verify(callbackSpy, times(1)).onResponse(eq(secondCall), responseCaptor.capture());
+        assertThat(responseCaptor.getValue().body()).isEqualTo("Two");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueFallsBackForMissingItems() throws Exception {
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/api/items?ids=1%2C2%2C3")) {
+                    return new MockResponse().setBody("{\"1\":\"One\",\"2\":\"Two\"}");
+                } else if (request.getPath().equals("/api/items/3")) {
+                    return new MockResponse().setBody("\"Three\"");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        Call<String> missingCall = mService.retrofitGetItem("3");
+
+        // The third call fills the batch so it's sent right away
+        mBatchingCallCollapser.enqueue(mService.retrofitGetItem("1"), callbackSpy);
+        mBatchingCallCollapser.enqueue(mService.retrofitGetItem("2"), callbackSpy);
+        mBatchingCallCollapser.enqueue(missingCall, callbackSpy);
+
+        // Verify the missing item was requested on its own
+        mSemaphore.acquire(3);
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(2);
+        ArgumentCaptor<Response<String>> responseCaptor = ArgumentCaptor.forClass(Response.class);
+        verify(callbackSpy, times(1)).onResponse(eq(missingCall), responseCaptor.capture());
+        assertThat(responseCaptor.getValue().body()).isEqualTo("Three");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueFallsBackWhenBatchFails() throws Exception {
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().startsWith(ITEMS_PATH)) {
+                    return new MockResponse().setBody("\"Single\"");
+                }
+                return new MockResponse().setResponseCode(500);
+            }
+        });
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        mBatchingCallCollapser.enqueue(mService.retrofitGetItem("1"), callbackSpy);
+        mBatchingCallCollapser.enqueue(mService.retrofitGetItem("2"), callbackSpy);
+
+        // Verify both items were requested on their own after the bulk request failed
+        mSemaphore.acquire(2);
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(3);
+        verify(callbackSpy, times(2)).onResponse(any(Call.class), any(Response.class));
+        verify(callbackSpy, never()).onFailure(any(Call.class), any(Throwable.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueFallsBackWhenBatchCallCantBeCreated() throws Exception {
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody("\"Single\"");
+            }
+        });
+        BatchingCallCollapser batchingCallCollapser = new BatchingCallCollapser(
+                new BaseCallCollapser(), 50, TimeUnit.MILLISECONDS, 3)
+                .register(new IBatchStrategy<Map<String, String>>() {
+                    @Nullable
+                    @Override
+                    public String extractId(@NonNull Request request) {
+                        return request.url().pathSegments().get(2);
+                    }
+
+                    @NonNull
+                    @Override
+                    public Call<Map<String, String>> createBatchCall(@NonNull List<String> ids) {
+                        throw new IllegalStateException("No bulk endpoint");
+                    }
+
+                    @Nullable
+                    @Override
+                    public Object extractItem(@NonNull Map<String, String> batch,
+                                              @NonNull String id) {
+                        return null;
+                    }
+                });
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        batchingCallCollapser.enqueue(mService.retrofitGetItem("1"), callbackSpy);
+        batchingCallCollapser.enqueue(mService.retrofitGetItem("2"), callbackSpy);
+        mSemaphore.acquire(2);
+
+        // Verify later batches are still sent
+        batchingCallCollapser.enqueue(mService.retrofitGetItem("3"), callbackSpy);
+        batchingCallCollapser.enqueue(mService.retrofitGetItem("4"), callbackSpy);
+        mSemaphore.acquire(2);
+        assertThat(mMockWebServer.getRequestCount()).isEqualTo(4);
+        verify(callbackSpy, times(4)).onResponse(any(Call.class), any(Response.class));
+        batchingCallCollapser.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void closeSendsBufferedCalls() throws Exception {
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/api/items?ids=1%2C2")) {
+                    return new MockResponse().setBody("{\"1\":\"One\",\"2\":\"Two\"}");
+                }
+                return new MockResponse().setBody("\"Three\"");
+            }
+        });
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        mBatchingCallCollapser.enqueue(mService.retrofitGetItem("1"), callbackSpy);
+        mBatchingCallCollapser.enqueue(mService.retrofitGetItem("2"), callbackSpy);
+        mBatchingCallCollapser.close();
+        mBatchingCallCollapser.enqueue(mService.retrofitGetItem("3"), callbackSpy);
+
+        // Verify the buffered calls were sent together and the late one on its own
+        mSemaphore.acquire(3);
+        assertThat(Arrays.asList(mMockWebServer.takeRequest().getPath(),
+                mMockWebServer.takeRequest().getPath()))
+                .containsExactlyInAnyOrder("/api/items?ids=1%2C2", "/api/items/3");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void enqueueDelegatesNotBatchableCalls() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Hello\""));
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        mBatchingCallCollapser.enqueue(mService.retrofitGetMethodString(), callbackSpy);
+
+        mSemaphore.acquire();
+        assertThat(mMockWebServer.takeRequest().getPath()).isEqualTo("/api/get/");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void unsubscribeBufferedCall() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("\"Two\""));
+
+        Callback<String> callbackSpy = spy(mCallbackBase);
+        Call<String> firstCall = mService.retrofitGetItem("1");
+        Call<String> secondCall = mService.retrofitGetItem("2");
+
+        mBatchingCallCollapser.subscribe(firstCall, callbackSpy).unsubscribe();
+        mBatchingCallCollapser.enqueue(secondCall, callbackSpy);
+
+        // Only the remaining call is made, on its own
+        mSemaphore.acquire();
+        assertThat(mMockWebServer.takeRequest().getPath()).isEqualTo("/api/items/2");
+        verify(callbackSpy, never()).onResponse(eq(firstCall), any(Response.class));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import ar.com.wolox.wolmo.networking.test_utils.service.RetrofitTestService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+
+import okhttp3.Request;
+import retrofit2.Invocation;
+
+public class CallCollapserStatsTest {
+
+    private CallCollapserStats mCallCollapserStats;
+    private Method mServiceMethod;
+    private Request mRequest;
+
+    @Before
+    public void beforeTest() throws Exception {
+        mCallCollapserStats = new CallCollapserStats();
+        mServiceMethod = RetrofitTestService.class.getMethod("retrofitGetMethodString");
+        mRequest = new Request.Builder().url("http://test.com/api/get/")
+                .tag(Invocation.class, Invocation.of(mServiceMethod, new ArrayList<>()))
+                .build();
+    }
+
+    @Test
+    public void countsOriginatedAndCollapsedCalls() {
+        Request untaggedRequest = new Request.Builder().url("http://test.com/other").build();
+
+        mCallCollapserStats.onCallOriginated(mRequest);
+        mCallCollapserStats.onCallCollapsed(mRequest);
+        mCallCollapserStats.onCallCollapsed(mRequest);
+        mCallCollapserStats.onCallCollapsed(untaggedRequest);
+
+        assertThat(mCallCollapserStats.getOriginatedCount()).isEqualTo(1);
+        assertThat(mCallCollapserStats.getCollapsedCount()).isEqualTo(3);
+        assertThat(mCallCollapserStats.getHitRatio()).isEqualTo(0.75);
+        assertThat(mCallCollapserStats.getOriginatedCount(mServiceMethod)).isEqualTo(1);
+        assertThat(mCallCollapserStats.getCollapsedCount(mServiceMethod)).isEqualTo(2);
+        assertThat(mCallCollapserStats.getInFlightCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void recordsFanOutAndWaits() {
+        mCallCollapserStats.onCallOriginated(mRequest);
+        mCallCollapserStats.onFlightCompleted(mRequest, 1, 10);
+        mCallCollapserStats.onCallOriginated(mRequest);
+        mCallCollapserStats.onFlightCompleted(mRequest, 3, 10);
+        mCallCollapserStats.onCallOriginated(mRequest);
+        mCallCollapserStats.onFlightCompleted(mRequest, 1000, 10);
+        mCallCollapserStats.onSubscriberNotified(mRequest, 10);
+        mCallCollapserStats.onSubscriberNotified(mRequest, 30);
+
+        assertThat(mCallCollapserStats.getFanOutHistogram())
+                .containsExactly(1, 0, 1, 0, 0, 0, 0, 1);
+        assertThat(mCallCollapserStats.getAverageWaitNanos()).isEqualTo(20);
+        assertThat(mCallCollapserStats.getMaxWaitNanos()).isEqualTo(30);
+        assertThat(mCallCollapserStats.getInFlightCount()).isEqualTo(0);
+    }
+}
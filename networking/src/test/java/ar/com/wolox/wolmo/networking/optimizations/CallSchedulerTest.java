@@ -0,0 +1,171 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.Request;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+public class CallSchedulerTest {
+
+    private Map<Call<String>, Callback<String>> mEnqueuedCalls;
+    private Callback<String> mCallbackMock;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void beforeTest() {
+        mEnqueuedCalls = new HashMap<>();
+        mCallbackMock = mock(Callback.class);
+    }
+
+    @Test
+    public void scheduleRespectsMaxRequestsPerHost() {
+        CallScheduler scheduler = new CallScheduler(2);
+        Call<String> firstCall = mockCall("http://first.com/1");
+        Call<String> secondCall = mockCall("http://first.com/2");
+        Call<String> thirdCall = mockCall("http://first.com/3");
+        Call<String> otherHostCall = mockCall("http://second.com/1");
+
+        scheduler.schedule(firstCall, mCallbackMock, CallScheduler.PRIORITY_NORMAL);
+        scheduler.schedule(secondCall, mCallbackMock, CallScheduler.PRIORITY_NORMAL);
+        scheduler.schedule(thirdCall, mCallbackMock, CallScheduler.PRIORITY_NORMAL);
+        scheduler.schedule(otherHostCall, mCallbackMock, CallScheduler.PRIORITY_NORMAL);
+
+        assertThat(mEnqueuedCalls).containsOnlyKeys(firstCall, secondCall, otherHostCall);
+        assertThat(scheduler.getRunningCount()).isEqualTo(3);
+        assertThat(scheduler.getWaitingCount()).isEqualTo(1);
+
+        // Finishing a call of the host frees its slot
+        complete(firstCall);
+        assertThat(mEnqueuedCalls).containsKey(thirdCall);
+        assertThat(scheduler.getWaitingCount()).isEqualTo(0);
+        verify(mCallbackMock, times(1)).onResponse(eq(firstCall), any(Response.class));
+    }
+
+    @Test
+    public void scheduleSendsHigherPrioritiesFirst() {
+        CallScheduler scheduler = new CallScheduler(1);
+        Call<String> runningCall = mockCall("http://test.com/running");
+        Call<String> normalCall = mockCall("http://test.com/normal");
+        Call<String> userBlockingCall = mockCall("http://test.com/blocking");
+
+        scheduler.schedule(runningCall, mCallbackMock, CallScheduler.PRIORITY_NORMAL);
+        scheduler.schedule(normalCall, mCallbackMock, CallScheduler.PRIORITY_NORMAL);
+        scheduler.schedule(userBlockingCall, mCallbackMock, CallScheduler.PRIORITY_USER_BLOCKING);
+
+        complete(runningCall);
+
+        assertThat(mEnqueuedCalls).containsOnlyKeys(runningCall, userBlockingCall);
+    }
+
+    @Test
+    public void schedulePrefetchKeepsLastSlot() {
+        CallScheduler scheduler = new CallScheduler(2);
+        Call<String> firstPrefetchCall = mockCall("http://test.com/prefetch/1");
+        Call<String> secondPrefetchCall = mockCall("http://test.com/prefetch/2");
+        Call<String> userBlockingCall = mockCall("http://test.com/blocking");
+
+        scheduler.schedule(firstPrefetchCall, mCallbackMock, CallScheduler.PRIORITY_PREFETCH);
+        scheduler.schedule(secondPrefetchCall, mCallbackMock, CallScheduler.PRIORITY_PREFETCH);
+        scheduler.schedule(userBlockingCall, mCallbackMock, CallScheduler.PRIORITY_USER_BLOCKING);
+
+        // The last slot is taken by the user blocking call instead of the second prefetch
+        assertThat(mEnqueuedCalls).containsOnlyKeys(firstPrefetchCall, userBlockingCall);
+        verify(secondPrefetchCall, never()).enqueue(any(Callback.class));
+    }
+
+    @Test
+    public void promoteWaitingCall() {
+        CallScheduler scheduler = new CallScheduler(2);
+        Call<String> firstPrefetchCall = mockCall("http://test.com/prefetch/1");
+        Call<String> secondPrefetchCall = mockCall("http://test.com/prefetch/2");
+
+        scheduler.schedule(firstPrefetchCall, mCallbackMock, CallScheduler.PRIORITY_PREFETCH);
+        CallScheduler.ScheduledCall<String> scheduledCall = scheduler
+                .schedule(secondPrefetchCall, mCallbackMock, CallScheduler.PRIORITY_PREFETCH);
+        assertThat(scheduledCall.isWaiting()).isTrue();
+
+        // Once promoted, it can take the slot kept for higher priorities
+        scheduledCall.promote(CallScheduler.PRIORITY_NORMAL);
+
+        assertThat(scheduledCall.isWaiting()).isFalse();
+        assertThat(scheduledCall.getPriority()).isEqualTo(CallScheduler.PRIORITY_NORMAL);
+        assertThat(mEnqueuedCalls).containsKey(secondPrefetchCall);
+    }
+
+    @Test
+    public void cancelWaitingCall() {
+        CallScheduler scheduler = new CallScheduler(1);
+        Call<String> runningCall = mockCall("http://test.com/running");
+        Call<String> waitingCall = mockCall("http://test.com/waiting");
+
+        scheduler.schedule(runningCall, mCallbackMock, CallScheduler.PRIORITY_NORMAL);
+        CallScheduler.ScheduledCall<String> scheduledCall = scheduler
+                .schedule(waitingCall, mCallbackMock, CallScheduler.PRIORITY_NORMAL);
+
+        assertThat(scheduledCall.cancel()).isTrue();
+        assertThat(scheduledCall.isWaiting()).isFalse();
+        assertThat(scheduler.getWaitingCount()).isEqualTo(0);
+
+        // The freed slot isn't taken by the cancelled call
+        complete(runningCall);
+        verify(waitingCall, times(1)).cancel();
+        verify(waitingCall, never()).enqueue(any(Callback.class));
+        verify(mCallbackMock, never()).onFailure(eq(waitingCall), any(Throwable.class));
+        assertThat(scheduler.getRunningCount()).isEqualTo(0);
+
+        // Cancelling a call already sent doesn't touch the queue
+        assertThat(scheduledCall.cancel()).isFalse();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Call<String> mockCall(String url) {
+        final Call<String> callMock = mock(Call.class);
+        when(callMock.request()).thenReturn(new Request.Builder().url(url).build());
+        doAnswer(invocation -> {
+            mEnqueuedCalls.put(callMock, invocation.getArgument(0));
+            return null;
+        }).when(callMock).enqueue(any(Callback.class));
+        return callMock;
+    }
+
+    private void complete(Call<String> call) {
+        mEnqueuedCalls.get(call).onResponse(call, Response.success("Done"));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import androidx.annotation.NonNull;
+
+import ar.com.wolox.wolmo.networking.test_utils.RetrofitCallMockBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+public class CallbackSubscriptionTest {
+
+    private List<Callback<String>> mEnqueuedCallbacks;
+    private ICallCollapser mCallCollapser;
+
+    @Before
+    public void beforeTest() {
+        mEnqueuedCallbacks = new ArrayList<>();
+
+        // A collapser that only implements the original contract
+        mCallCollapser = new ICallCollapser() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> void enqueue(@NonNull Call<T> call, @NonNull Callback<T> callback) {
+                mEnqueuedCallbacks.add((Callback<String>) callback);
+            }
+        };
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void subscribeNotifiesOnce() {
+        Call<String> callMock = new RetrofitCallMockBuilder().buildSuccess("Success");
+        Callback<String> callbackMock = mock(Callback.class);
+
+        ICallSubscription subscription = mCallCollapser.subscribe(callMock, callbackMock,
+                CallScheduler.PRIORITY_USER_BLOCKING);
+        mEnqueuedCallbacks.get(0).onResponse(callMock, Response.success("Success"));
+        mEnqueuedCallbacks.get(0).onFailure(callMock, new Exception());
+        subscription.unsubscribe();
+
+        verify(callbackMock, times(1)).onResponse(any(Call.class), any(Response.class));
+        verify(callbackMock, never()).onFailure(any(Call.class), any(Throwable.class));
+        assertThat(subscription.isUnsubscribed()).isFalse();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void unsubscribeStopsNotifications() {
+        Call<String> callMock = new RetrofitCallMockBuilder().buildSuccess("Success");
+        Callback<String> callbackMock = mock(Callback.class);
+
+        ICallSubscription subscription = mCallCollapser.subscribe(callMock, callbackMock);
+        subscription.unsubscribe();
+        mEnqueuedCallbacks.get(0).onResponse(callMock, Response.success("Success"));
+
+        verify(callbackMock, never()).onResponse(any(Call.class), any(Response.class));
+        verify(callMock, never()).cancel();
+        assertThat(subscription.isUnsubscribed()).isTrue();
+    }
+
+    @Test
+    public void executeRunsTheCall() throws Exception {
+        Call<String> callMock = new RetrofitCallMockBuilder().buildSuccess("Success");
+
+        mCallCollapser.execute(callMock);
+
+        verify(callMock, times(1)).execute();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+public class RequestFingerprintTest {
+
+    @Test
+    public void fingerprintSortsQueryParameters() throws Exception {
+        Request first = new Request.Builder().url("http://test.com/items?b=2&a=1&a=0").build();
+        Request second = new Request.Builder().url("http://test.com/items?a=0&b=2&a=1").build();
+
+        assertThat(RequestFingerprint.of(first)).isEqualTo(RequestFingerprint.of(second));
+        assertThat(RequestFingerprint.of(first)).isEqualTo("GET http://test.com/items?a=0&a=1&b=2");
+    }
+
+    @Test
+    public void fingerprintDiffersByMethod() throws Exception {
+        Request get = new Request.Builder().url("http://test.com/items").build();
+        Request head = new Request.Builder().url("http://test.com/items").head().build();
+
+        assertThat(RequestFingerprint.of(get)).isNotEqualTo(RequestFingerprint.of(head));
+    }
+
+    @Test
+    public void fingerprintConsidersOnlyVaryHeaders() throws Exception {
+        Request english = new Request.Builder().url("http://test.com/items")
+                .header("Accept-Language", "en").header("X-Trace", "1").build();
+        Request spanish = new Request.Builder().url("http://test.com/items")
+                .header("Accept-Language", "es").header("X-Trace", "2").build();
+
+        assertThat(RequestFingerprint.of(english)).isEqualTo(RequestFingerprint.of(spanish));
+        assertThat(RequestFingerprint.of(english, "Accept-Language"))
+                .isNotEqualTo(RequestFingerprint.of(spanish, "Accept-Language"));
+    }
+
+    @Test
+    public void fingerprintHashesBody() throws Exception {
+        MediaType json = MediaType.parse("application/json");
+        Request first = new Request.Builder().url("http://test.com/search")
+                .post(RequestBody.create(json, "{\"query\":\"first\"}")).build();
+        Request sameAsFirst = new Request.Builder().url("http://test.com/search")
+                .post(RequestBody.create(json, "{\"query\":\"first\"}")).build();
+        Request second = new Request.Builder().url("http://test.com/search")
+                .post(RequestBody.create(json, "{\"query\":\"second\"}")).build();
+
+        assertThat(RequestFingerprint.of(first)).isEqualTo(RequestFingerprint.of(sameAsFirst));
+        assertThat(RequestFingerprint.of(first)).isNotEqualTo(RequestFingerprint.of(second));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.optimizations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+public class ResponseMemoTest {
+
+    @Test
+    public void getReturnsMemoizedResponse() {
+        ResponseMemo memo = new ResponseMemo(TimeUnit.SECONDS.toNanos(5), 4, 1024);
+        Response<String> response = buildResponse(200, 10);
+
+        memo.put("key", response);
+
+        assertThat(memo.get("key")).isSameAs(response);
+        assertThat(memo.get("other")).isNull();
+    }
+
+    @Test
+    public void unsuccessfulResponsesAreIgnored() {
+        ResponseMemo memo = new ResponseMemo(TimeUnit.SECONDS.toNanos(5), 4, 1024);
+
+        memo.put("key", buildResponse(404, 10));
+
+        assertThat(memo.get("key")).isNull();
+    }
+
+    @Test
+    public void entriesExpireAfterWindow() throws Exception {
+        ResponseMemo memo = new ResponseMemo(TimeUnit.MILLISECONDS.toNanos(10), 4, 1024);
+
+        memo.put("key", buildResponse(200, 10));
+        Thread.sleep(20);
+
+        assertThat(memo.get("key")).isNull();
+    }
+
+    @Test
+    public void oldestEntriesAreEvictedWhenOverLimits() {
+        ResponseMemo memo = new ResponseMemo(TimeUnit.SECONDS.toNanos(5), 2, 100);
+
+        memo.put("first", buildResponse(200, 10));
+        memo.put("second", buildResponse(200, 10));
+        memo.put("third", buildResponse(200, 10));
+        assertThat(memo.get("first")).isNull();
+        assertThat(memo.get("second")).isNotNull();
+
+        memo.put("big", buildResponse(200, 91));
+        assertThat(memo.get("second")).isNull();
+        assertThat(memo.get("third")).isNull();
+        assertThat(memo.get("big")).isNotNull();
+
+        memo.put("huge", buildResponse(200, 101));
+        assertThat(memo.get("huge")).isNull();
+        assertThat(memo.get("big")).isNotNull();
+    }
+
+    private static Response<String> buildResponse(int code, long contentLength) {
+        okhttp3.Response rawResponse = new okhttp3.Response.Builder()
+                .request(new Request.Builder().url("http://test.com/").build())
+                .protocol(Protocol.HTTP_1_1).code(code).message("Message")
+                .body(ResponseBody.create(MediaType.parse("text/plain"),
+                        new byte[(int) contentLength]))
+                .build();
+        return code < 300 ? Response.success("Body", rawResponse)
+                : Response.error(ResponseBody.create(null, ""), rawResponse);
+    }
+}
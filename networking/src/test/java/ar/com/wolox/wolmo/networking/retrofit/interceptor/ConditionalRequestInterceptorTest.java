@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ * <p>
+ * Copyright (c) 2017 Wolox S.A
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package ar.com.wolox.wolmo.networking.retrofit.interceptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import ar.com.wolox.wolmo.networking.offline.ValidatorStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class ConditionalRequestInterceptorTest {
+
+    private MockWebServer mMockWebServer;
+    private ValidatorStore mValidatorStore;
+    private OkHttpClient mOkHttpClient;
+    private Request mRequest;
+
+    @Before
+    public void beforeTest() throws IOException {
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.start();
+
+        mValidatorStore = new ValidatorStore();
+        mOkHttpClient = new OkHttpClient.Builder()
+                .addInterceptor(new ConditionalRequestInterceptor(mValidatorStore)).build();
+        mRequest = new Request.Builder().url(mMockWebServer.url("/api/items")).build();
+    }
+
+    @After
+    public void afterTest() throws IOException {
+        mMockWebServer.shutdown();
+    }
+
+    @Test
+    public void interceptArmedRequest() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("Items").setHeader("ETag", "\"v1\"")
+                .setHeader("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT"));
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(304));
+
+        execute(mRequest);
+        mValidatorStore.arm(mRequest);
+        assertThat(mValidatorStore.isArmed(mRequest)).isTrue();
+        Response response = execute(mRequest);
+
+        // The second request is conditional
+        mMockWebServer.takeRequest();
+        RecordedRequest conditionalRequest = mMockWebServer.takeRequest();
+        assertThat(conditionalRequest.getHeader("If-None-Match")).isEqualTo("\"v1\"");
+        assertThat(conditionalRequest.getHeader("If-Modified-Since"))
+                .isEqualTo("Wed, 21 Oct 2015 07:28:00 GMT");
+        assertThat(response.code()).isEqualTo(304);
+
+        // Arming applies only to one request
+        assertThat(mValidatorStore.isArmed(mRequest)).isFalse();
+    }
+
+    @Test
+    public void interceptNotArmedRequest() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("Items").setHeader("ETag", "\"v1\""));
+        mMockWebServer.enqueue(new MockResponse().setBody("Items"));
+
+        execute(mRequest);
+        execute(mRequest);
+
+        mMockWebServer.takeRequest();
+        assertThat(mMockWebServer.takeRequest().getHeader("If-None-Match")).isNull();
+    }
+
+    @Test
+    public void interceptResponseWithoutValidators() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("Items").setHeader("ETag", "\"v1\""));
+        mMockWebServer.enqueue(new MockResponse().setBody("Items"));
+        mMockWebServer.enqueue(new MockResponse().setBody("Items"));
+
+        execute(mRequest);
+        execute(mRequest);
+        mValidatorStore.arm(mRequest);
+        execute(mRequest);
+
+        // The validators of the first response were dropped by the second one
+        mMockWebServer.takeRequest();
+        mMockWebServer.takeRequest();
+        assertThat(mMockWebServer.takeRequest().getHeader("If-None-Match")).isNull();
+    }
+
+    @Test
+    public void interceptOnlyArmedInstance() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("Items").setHeader("ETag", "\"v1\""));
+        mMockWebServer.enqueue(new MockResponse().setBody("Items").setHeader("ETag", "\"v1\""));
+
+        // Nothing to arm without validators
+        mValidatorStore.arm(mRequest);
+        assertThat(mValidatorStore.isArmed(mRequest)).isFalse();
+        execute(mRequest);
+
+        // Other requests for the same URL aren't affected
+        mValidatorStore.arm(mRequest);
+        execute(mRequest.newBuilder().build());
+
+        mMockWebServer.takeRequest();
+        assertThat(mMockWebServer.takeRequest().getHeader("If-None-Match")).isNull();
+        assertThat(mValidatorStore.isArmed(mRequest)).isTrue();
+    }
+
+    private Response execute(Request request) throws IOException {
+        Response response = mOkHttpClient.newCall(request).execute();
+        response.close();
+        return response;
+    }
+}
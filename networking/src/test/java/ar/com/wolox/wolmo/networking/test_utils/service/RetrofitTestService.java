@@ -1,14 +1,35 @@
 package ar.com.wolox.wolmo.networking.test_utils.service;
 
+import ar.com.wolox.wolmo.networking.optimizations.Idempotent;
+
+import java.util.Map;
+
 import retrofit2.Call;
+import retrofit2.http.Body;
 import retrofit2.http.GET;
 import retrofit2.http.POST;
+import retrofit2.http.Path;
+import retrofit2.http.Query;
 
 public interface RetrofitTestService {
 
     @GET("/api/get/")
     Call<String> retrofitGetMethodString();
 
+    @GET("/api/search/")
+    Call<String> retrofitGetMethodString(@Query("first") String first,
+                                         @Query("second") String second);
+
     @POST("/api/post/")
     Call<String> retrofitPostMethodString();
+
+    @Idempotent
+    @POST("/api/search/")
+    Call<String> retrofitIdempotentPostMethodString(@Body String query);
+
+    @GET("/api/items/{id}")
+    Call<String> retrofitGetItem(@Path("id") String id);
+
+    @GET("/api/items")
+    Call<Map<String, String>> retrofitGetItems(@Query("ids") String ids);
 }